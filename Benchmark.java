@@ -0,0 +1,283 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/** Benchmark suite for the core gitlet operations.
+ *
+ *      java gitlet.Benchmark [files=N,...] [size=BYTES,...] [depth=N,...]
+ *                            [store=file|memory|log,...] [iterations=N]
+ *
+ *  Every combination of file count, file size, history depth and object
+ *  store gets a fresh synthetic repository in a temporary directory and its
+ *  own forked JVM, so no configuration inherits another's JIT profile or
+ *  heap.  The fork keeps the repository open throughout, warms each
+ *  operation up, then times ITERATIONS runs, and prints one row per
+ *  operation with the mean and best time in microseconds.  Besides the
+ *  commands it times every HashAlgorithm on one file's contents, and
+ *  ObjectCodec against the ObjectOutputStream format it replaced on the
+ *  head commit and on a blob table of the same files.  With
+ *  store=memory the numbers leave out storage latency altogether.  Only the
+ *  operation itself is timed; whatever it needs set up first (staged
+ *  changes, a branch to merge) is done outside the timed region.
+ *  @author Jackson Qi
+ */
+public class Benchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+
+    private static int[] fileCounts = {100, 1000};
+    private static int[] fileSizes = {1024};
+    private static int[] depths = {50};
+    private static String[] stores = {"file"};
+    private static int iterations = 20;
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--fork")) {
+            runFork(new File(args[1]), args[2], Integer.parseInt(args[3]),
+                    Integer.parseInt(args[4]), Integer.parseInt(args[5]),
+                    Integer.parseInt(args[6]));
+            return;
+        }
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            switch (parts[0]) {
+                case "files":
+                    fileCounts = parseList(parts[1]);
+                    break;
+                case "size":
+                    fileSizes = parseList(parts[1]);
+                    break;
+                case "depth":
+                    depths = parseList(parts[1]);
+                    break;
+                case "store":
+                    stores = parts[1].split(",");
+                    for (String store : stores) {
+                        if (!store.matches("file|memory|log")) {
+                            System.out.println("Unknown object store: " + store);
+                            return;
+                        }
+                    }
+                    break;
+                case "iterations":
+                    iterations = Integer.parseInt(parts[1]);
+                    break;
+                default:
+                    System.out.println("Unknown benchmark parameter: " + arg);
+                    return;
+            }
+        }
+
+        System.out.printf("%-20s %7s %8s %6s %6s %12s %12s%n",
+                "operation", "files", "size", "depth", "store", "mean us", "best us");
+        for (int files : fileCounts) {
+            for (int size : fileSizes) {
+                for (int depth : depths) {
+                    for (String store : stores) {
+                        fork(files, size, depth, store);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void fork(int files, int size, int depth, String store)
+            throws IOException, InterruptedException {
+        File dir = java.nio.file.Files.createTempDirectory("gitlet-bench").toFile();
+        String java = join(System.getProperty("java.home"), "bin", "java").getPath();
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "gitlet.Benchmark", "--fork", dir.getAbsolutePath(), store,
+                Integer.toString(files), Integer.toString(size), Integer.toString(depth),
+                Integer.toString(iterations))
+                .directory(dir).inheritIO().start();
+        child.waitFor();
+        deleteTree(dir);
+    }
+
+    /* INSIDE THE FORK: DIR is a fresh, empty directory */
+
+    private static void runFork(File dir, String store, int files, int size, int depth,
+                                int iters) {
+        String params = String.format("%7d %8d %6d %6s", files, size, depth, store);
+        SyntheticRepo repo = new SyntheticRepo(dir, store, files, size, depth);
+        Repository gitlet = repo.gitlet;
+
+        byte[] contents = repo.contents(0, 1);
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            time(algorithm.getName(), params, iters, () -> { },
+                () -> toHex(algorithm.digest(contents)));
+        }
+
+        ObjectDatabase db = gitlet.database();
+        String head = gitlet.headCommitID();
+        time("readObject", params, iters, () -> { },
+            () -> deserialize(db.get(ObjectDatabase.Namespace.COMMITS, head), Commit.class));
+        Commit commit = gitlet.grabCommit(head);
+        time("serialize", params, iters, () -> { }, () -> serialize(commit));
+        byte[] legacyCommit = serializeLegacy(commit);
+        time("readObject-legacy", params, iters, () -> { },
+            () -> readLegacyObject(legacyCommit, Commit.class));
+        time("serialize-legacy", params, iters, () -> { }, () -> serializeLegacy(commit));
+
+        HashMap<ObjectId, Blob> blobTable = blobTable(commit);
+        byte[] encodedTable = serialize(blobTable);
+        byte[] legacyTable = serializeLegacy(blobTable);
+        time("encode-blobs", params, iters, () -> { }, () -> serialize(blobTable));
+        time("encode-blobs-legacy", params, iters, () -> { },
+            () -> serializeLegacy(blobTable));
+        time("decode-blobs", params, iters, () -> { },
+            () -> ObjectCodec.decode(encodedTable, HashMap.class));
+        time("decode-blobs-legacy", params, iters, () -> { },
+            () -> readLegacyObject(legacyTable, HashMap.class));
+
+        int[] round = {0};
+        time("add", params, iters,
+            () -> repo.modify(round[0]++ % files, round[0]),
+            () -> gitlet.addCommand(repo.fileName((round[0] - 1) % files)));
+
+        time("commit", params, iters,
+            () -> repo.stage(round[0]++ % files, round[0]),
+            () -> gitlet.commitCommand("bench " + round[0], null));
+
+        gitlet.branchCommand("other");
+        String[] target = {"other"};
+        time("checkout-branch", params, iters, () -> { }, () -> {
+            gitlet.checkoutCommand3(target[0]);
+            target[0] = target[0].equals("other") ? "master" : "other";
+        });
+        if (target[0].equals("master")) {
+            gitlet.checkoutCommand3("master");
+        }
+
+        time("log", params, iters, () -> { }, gitlet::logCommand);
+
+        time("merge", params, iters,
+            () -> repo.prepareMerge("topic" + round[0]++, round[0]),
+            () -> gitlet.mergeCommand("topic" + (round[0] - 1)));
+        gitlet.close();
+    }
+
+    // runs SETUP untimed and OP timed, WARMUP_ITERATIONS + ITERS times
+    private static void time(String name, String params, int iters,
+                             Runnable setup, Runnable op) {
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < WARMUP_ITERATIONS + iters; i++) {
+            setup.run();
+            long start = System.nanoTime();
+            op.run();
+            long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP_ITERATIONS) {
+                total += elapsed;
+                best = Math.min(best, elapsed);
+            }
+        }
+        System.out.printf("%-20s %s %12.1f %12.1f%n", name, params,
+                total / 1000.0 / iters, best / 1000.0);
+    }
+
+    // a blob table holding a small blob for each of COMMIT's files
+    private static HashMap<ObjectId, Blob> blobTable(Commit commit) {
+        HashMap<ObjectId, Blob> table = new HashMap<>();
+        for (Map.Entry<String, String> file : commit.getFilesList().entrySet()) {
+            table.put(ObjectId.fromString(file.getValue()),
+                    new Blob(file.getKey(), file.getValue(), file.getKey() + "\n"));
+        }
+        return table;
+    }
+
+    private static Function<File, ObjectDatabase> storage(String store) {
+        switch (store) {
+            case "memory":
+                return dir -> new MemoryObjectDatabase();
+            case "log":
+                return LogObjectDatabase::open;
+            default:
+                return FileObjectDatabase::new;
+        }
+    }
+
+    private static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i]);
+        }
+        return result;
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** A repository of FILES files of SIZE bytes with DEPTH commits of history
+     *  on master, made by RepoGenerator in DIR on the object store named
+     *  STORE, and left open with its output discarded. */
+    private static class SyntheticRepo {
+        private final int files;
+        private final int size;
+        private final Repository gitlet;
+
+        SyntheticRepo(File dir, String store, int files, int size, int depth) {
+            this.files = files;
+            this.size = size;
+            RepoGenerator generator = new RepoGenerator();
+            generator.set("commits", Integer.toString(depth));
+            generator.set("files", Integer.toString(files));
+            generator.set("size", Integer.toString(size));
+            generator.set("branches", "1");
+            gitlet = Repository.init(dir, HashAlgorithm.SHA1, storage(store),
+                    new PrintStream(OutputStream.nullOutputStream()));
+            generator.generate(gitlet);
+        }
+
+        String fileName(int index) {
+            return "file" + index + ".txt";
+        }
+
+        // printable contents for file INDEX at VERSION, SIZE bytes long
+        byte[] contents(int index, int version) {
+            byte[] bytes = new byte[size];
+            String seed = index + ":" + version + "\n";
+            for (int i = 0; i < size; i++) {
+                bytes[i] = (byte) seed.charAt(i % seed.length());
+            }
+            return bytes;
+        }
+
+        void modify(int index, int version) {
+            writeContents(join(gitlet.cwd, fileName(index)), contents(index, version));
+        }
+
+        void stage(int index, int version) {
+            modify(index, version);
+            gitlet.addCommand(fileName(index));
+        }
+
+        // a branch BRANCH with one commit, and one new commit on master, both
+        // touching different files, so merging BRANCH is a real three-way merge
+        void prepareMerge(String branch, int version) {
+            gitlet.branchCommand(branch);
+            gitlet.checkoutCommand3(branch);
+            stage(version % files, version);
+            gitlet.commitCommand("topic " + version, null);
+            gitlet.checkoutCommand3("master");
+            stage((version + 1) % files, version);
+            gitlet.commitCommand("master " + version, null);
+        }
+    }
+}
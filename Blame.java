@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** Who wrote each line of one version of a file: the commit that added the
+ *  line, and where the line was in the file as that commit left it.
+ *
+ *  Repository.blameCommand keeps one for every version it has worked out,
+ *  under the blob and the commit that introduced the version, and a later
+ *  blame that reaches that version takes the rest of its answer from here
+ *  instead of walking further back.  Each commit id is written once and the
+ *  lines refer to it by index.
+ *  @author Jackson Qi
+ */
+public class Blame implements Serializable {
+
+    /** Pinned like the other stored types, though only ObjectCodec ever writes it. */
+    private static final long serialVersionUID = 7205561342180977468L;
+
+    private final String[] commits;
+    private final int[] lines;
+
+    Blame(String[] commits, int[] lines) {
+        this.commits = commits;
+        this.lines = lines;
+    }
+
+    // the number of lines in the version
+    public int size() {
+        return commits.length;
+    }
+
+    // the commit that added line I
+    public String commit(int i) {
+        return commits[i];
+    }
+
+    // the index line I had in the commit that added it
+    public int line(int i) {
+        return lines[i];
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        List<String> ids = new ArrayList<>();
+        HashMap<String, Integer> indices = new HashMap<>();
+        int[] owners = new int[commits.length];
+        for (int i = 0; i < commits.length; i++) {
+            Integer index = indices.get(commits[i]);
+            if (index == null) {
+                index = ids.size();
+                indices.put(commits[i], index);
+                ids.add(commits[i]);
+            }
+            owners[i] = index;
+        }
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            ObjectCodec.writeString(out, id);
+        }
+        out.writeInt(commits.length);
+        for (int i = 0; i < commits.length; i++) {
+            out.writeInt(owners[i]);
+            out.writeInt(lines[i]);
+        }
+    }
+
+    static Blame readFrom(DataInputStream in) throws IOException {
+        String[] ids = new String[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ObjectCodec.readString(in);
+        }
+        String[] commits = new String[in.readInt()];
+        int[] lines = new int[commits.length];
+        for (int i = 0; i < commits.length; i++) {
+            commits[i] = ids[in.readInt()];
+            lines[i] = in.readInt();
+        }
+        return new Blame(commits, lines);
+    }
+}
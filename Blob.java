@@ -1,13 +1,35 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+import gitlet.ObjectDatabase.Namespace;
 
 public class Blob implements Serializable {
 
+    /** Pinned so files written before ObjectCodec still deserialize. */
+    private static final long serialVersionUID = 218398473841595764L;
+
     String fileName;
     String fileSha1;
     String contents;
+    /** For a file stored in chunks (see Chunker), the ids of the chunks in order and the
+     *  length of the file in bytes; CONTENTS is null then. */
+    String[] chunks;
+    long length;
+    /** For a file kept in a LargeFileStore, its id there and its length; CONTENTS and
+     *  CHUNKS are null then. */
+    String largeObject;
+    /** Where the chunks and large objects are read from, set whenever Repository hands
+     *  the blob out. */
+    private transient ObjectDatabase chunkSource;
+    private transient LargeFileStore largeFiles;
 
     public Blob(String fileName, String fileSha1, String contents) {
         this.fileName = fileName;
@@ -15,6 +37,104 @@ public class Blob implements Serializable {
         this.contents = contents;
     }
 
+    Blob(String fileName, String fileSha1, String[] chunks, long length) {
+        this.fileName = fileName;
+        this.fileSha1 = fileSha1;
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    // the pointer blob of FILENAME for the large object LARGEOBJECT of LENGTH bytes; its id
+    // FILESHA1 is the hash of FILENAME and LargeFileStore.pointer
+    static Blob pointer(String fileName, String fileSha1, String largeObject, long length) {
+        Blob blob = new Blob(fileName, fileSha1, (String[]) null, length);
+        blob.largeObject = largeObject;
+        return blob;
+    }
+
+    // a chunked or pointer blob is written with null contents, which a whole one never
+    // has, and a pointer then has -1 for its number of chunks
+    void writeTo(DataOutputStream out) throws IOException {
+        ObjectCodec.writeString(out, fileName);
+        ObjectCodec.writeString(out, fileSha1);
+        ObjectCodec.writeString(out, contents);
+        if (contents == null) {
+            out.writeLong(length);
+            if (largeObject != null) {
+                out.writeInt(-1);
+                ObjectCodec.writeString(out, largeObject);
+                return;
+            }
+            out.writeInt(chunks.length);
+            for (String chunk : chunks) {
+                ObjectCodec.writeString(out, chunk);
+            }
+        }
+    }
+
+    static Blob readFrom(DataInputStream in) throws IOException {
+        String name = ObjectCodec.readString(in);
+        String sha1 = ObjectCodec.readString(in);
+        String contents = ObjectCodec.readString(in);
+        if (contents != null) {
+            return new Blob(name, sha1, contents);
+        }
+        long length = in.readLong();
+        int count = in.readInt();
+        if (count < 0) {
+            return pointer(name, sha1, ObjectCodec.readString(in), length);
+        }
+        String[] chunks = new String[count];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ObjectCodec.readString(in);
+        }
+        return new Blob(name, sha1, chunks, length);
+    }
+
+    void attach(ObjectDatabase db, LargeFileStore large) {
+        chunkSource = db;
+        largeFiles = large;
+    }
+
+    // writes the contents to OUT, one chunk at a time if the blob is chunked
+    void copyContents(OutputStream out) throws IOException {
+        if (contents != null) {
+            out.write(contents.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        if (largeObject != null) {
+            if (largeFiles == null) {
+                throw Utils.error("No large file store to get %s from.", fileName);
+            }
+            largeFiles.copy(largeObject, out);
+            return;
+        }
+        for (String chunk : chunks) {
+            byte[] bytes = chunkSource.get(Namespace.CHUNKS, chunk);
+            if (bytes == null) {
+                throw Utils.error("Missing file contents for %s.", fileSha1);
+            }
+            out.write(bytes);
+        }
+    }
+
+    // whether OTHER has the same contents; chunked and pointer blobs compare by the ids
+    // of their chunks and large objects
+    boolean sameContents(Blob other) {
+        if (chunks != null && other.chunks != null) {
+            return Arrays.equals(chunks, other.chunks);
+        }
+        if (largeObject != null && other.largeObject != null) {
+            return largeObject.equals(other.largeObject);
+        }
+        return getContents().equals(other.getContents());
+    }
+
+    // the length of the contents, in characters for a whole blob and bytes for the others
+    public long size() {
+        return contents != null ? contents.length() : length;
+    }
+
     public String getFileName() {
         return fileName;
     }
@@ -23,8 +143,19 @@ public class Blob implements Serializable {
         return fileSha1;
     }
 
+    // the contents, read back from the chunks or the large file each time for a blob
+    // that does not hold them itself
     public String getContents() {
-        return contents;
+        if (contents != null) {
+            return contents;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) length);
+        try {
+            copyContents(bytes);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
     }
 
 }
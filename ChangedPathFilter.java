@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** A Bloom filter over the file names a commit changed relative to its
+ *  first parent.  One of these is written next to every commit so that
+ *  path-limited history walks can skip commits that provably did not touch
+ *  a file without ever loading the commit's filesList.  The parent ids are
+ *  kept here too, so the walk can move on without reading the commit.
+ *  @author Jackson Qi
+ */
+public class ChangedPathFilter implements Serializable {
+
+    /** Pinned so files written before ObjectCodec still deserialize. */
+    private static final long serialVersionUID = -7986795123617795960L;
+
+    /** Bits set aside per changed path; ~1% false positives with 7 probes. */
+    private static final int BITS_PER_PATH = 10;
+    private static final int NUM_PROBES = 7;
+
+    private final long[] bits;
+    private final String parent;
+    private final String parent2;
+
+    public ChangedPathFilter(Set<String> changedPaths, String parent, String parent2) {
+        int numBits = Math.max(64, changedPaths.size() * BITS_PER_PATH);
+        this.bits = new long[(numBits + 63) / 64];
+        this.parent = parent;
+        this.parent2 = parent2;
+        for (String path : changedPaths) {
+            add(path);
+        }
+    }
+
+    private ChangedPathFilter(long[] bits, String parent, String parent2) {
+        this.bits = bits;
+        this.parent = parent;
+        this.parent2 = parent2;
+    }
+
+    // builds the filter for a commit whose file list is FILES and whose first parent
+    // had PARENTFILES
+    public static ChangedPathFilter of(Map<String, String> files, Map<String, String> parentFiles,
+                                       String parent, String parent2) {
+        return new ChangedPathFilter(changedPaths(files, parentFiles), parent, parent2);
+    }
+
+    // the names whose blob differs between the two file lists, including adds and removes
+    public static Set<String> changedPaths(Map<String, String> files,
+                                           Map<String, String> parentFiles) {
+        Set<String> changed = new TreeSet<>();
+        for (String fileName : files.keySet()) {
+            if (!Objects.equals(files.get(fileName), parentFiles.get(fileName))) {
+                changed.add(fileName);
+            }
+        }
+        for (String fileName : parentFiles.keySet()) {
+            if (!files.containsKey(fileName)) {
+                changed.add(fileName);
+            }
+        }
+        return changed;
+    }
+
+    // false means the commit definitely did not change PATH; true means it might have
+    public boolean mightContain(String path) {
+        int h1 = path.hashCode();
+        int h2 = mix(h1);
+        long numBits = (long) bits.length * 64;
+        for (int i = 0; i < NUM_PROBES; i++) {
+            int bit = (int) Math.floorMod(h1 + (long) i * h2, numBits);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        ObjectCodec.writeString(out, parent);
+        ObjectCodec.writeString(out, parent2);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    static ChangedPathFilter readFrom(DataInputStream in) throws IOException {
+        String parent = ObjectCodec.readString(in);
+        String parent2 = ObjectCodec.readString(in);
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new ChangedPathFilter(bits, parent, parent2);
+    }
+
+    public String getParent() {
+        return parent;
+    }
+
+    public String getParent2() {
+        return parent2;
+    }
+
+    private void add(String path) {
+        int h1 = path.hashCode();
+        int h2 = mix(h1);
+        long numBits = (long) bits.length * 64;
+        for (int i = 0; i < NUM_PROBES; i++) {
+            int bit = (int) Math.floorMod(h1 + (long) i * h2, numBits);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    // second, independent hash for double hashing (murmur3 finalizer), forced odd
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
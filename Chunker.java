@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import gitlet.ObjectDatabase.Namespace;
+
+import static gitlet.Utils.hash;
+
+/** Stores large files as a list of chunks, so that a version which differs
+ *  from the last in a few places only adds the chunks around those places.
+ *
+ *  Chunk boundaries depend on the contents, not on offsets, so an insertion
+ *  does not shift every boundary after it.  A gear hash rolls over the bytes:
+ *  each byte shifts the hash left by one and adds that byte's random table entry,
+ *  so the top bits of the hash depend on the last 64 bytes only.  A chunk ends
+ *  where those bits are all zero.  As in FastCDC, the first MIN_SIZE bytes of a
+ *  chunk are never tested, and the test is harder before AVG_SIZE than after it,
+ *  which keeps most chunks near AVG_SIZE.  No chunk is longer than MAX_SIZE.
+ *
+ *  Each chunk is stored once under the hash of its bytes in Namespace.CHUNKS;
+ *  the Blob keeps the ids of its chunks in order.
+ *  @author Jackson Qi
+ */
+class Chunker {
+
+    /** Files of at least this many bytes are stored in chunks. */
+    static final long THRESHOLD = 1 << 20;
+    static final int MIN_SIZE = 16 << 10;
+    static final int AVG_SIZE = 64 << 10;
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Two bits more and two bits fewer than the 16 an average of AVG_SIZE takes. */
+    private static final long HARD_MASK = -1L << (64 - 18);
+    private static final long EASY_MASK = -1L << (64 - 14);
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // fixed, so every repository cuts the same contents in the same places
+        SplittableRandom random = new SplittableRandom(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private Chunker() {
+    }
+
+    // stores the contents of FILE in DB as chunks, skipping those DB has already, and
+    // returns the blob BLOBID of FILENAME that lists them
+    static Blob store(ObjectDatabase db, File file, String fileName, String blobID) {
+        try (InputStream in = new FileInputStream(file)) {
+            return store(db, in, fileName, blobID);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // the same for the contents read from IN
+    static Blob store(ObjectDatabase db, InputStream in, String fileName, String blobID)
+            throws IOException {
+        List<String> chunks = new ArrayList<>();
+        long length = 0;
+        byte[] buffer = new byte[MAX_SIZE];
+        int filled = 0;
+        while (true) {
+            filled += in.readNBytes(buffer, filled, buffer.length - filled);
+            if (filled == 0) {
+                break;
+            }
+            int cut = cutPoint(buffer, filled);
+            byte[] chunk = new byte[cut];
+            System.arraycopy(buffer, 0, chunk, 0, cut);
+            String id = hash(chunk);
+            if (db.size(Namespace.CHUNKS, id) == 0) {
+                db.put(Namespace.CHUNKS, id, chunk);
+            }
+            chunks.add(id);
+            length += cut;
+            System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+            filled -= cut;
+        }
+        return new Blob(fileName, blobID, chunks.toArray(new String[0]), length);
+    }
+
+    // the length of the chunk that starts BYTES, of which the first N are filled in; N is
+    // below MAX_SIZE only at the end of the file
+    private static int cutPoint(byte[] bytes, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        long gear = 0;
+        int i = MIN_SIZE;
+        for (int normal = Math.min(AVG_SIZE, n); i < normal; i++) {
+            gear = (gear << 1) + GEAR[bytes[i] & 0xff];
+            if ((gear & HARD_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i++) {
+            gear = (gear << 1) + GEAR[bytes[i] & 0xff];
+            if ((gear & EASY_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
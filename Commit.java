@@ -2,27 +2,42 @@ package gitlet;
 
 import java.text.SimpleDateFormat;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.HashMap;
 
 
 import static gitlet.Utils.serialize;
-import static gitlet.Utils.sha1;
+import static gitlet.Utils.hash;
 
 /** Represents a gitlet commit object.
  *  does at a high level.
  *
+ *  A commit's encoding is a header (timestamp, message and parents) followed
+ *  by its file list, which can hold tens of thousands of entries.  Decoding
+ *  reads only the header and keeps the file list's bytes as they are, so
+ *  commands that walk history never build a map they do not look at; the
+ *  first getFilesList decodes it.
+ *
  *  @author Jackson Qi
  */
 public class Commit implements Serializable {
 
-    /** The message of this Commit. */
-    private String id;
+    /** Pinned so adding methods keeps existing commit files deserializing. */
+    private static final long serialVersionUID = 4677081511092698040L;
+
+    /** The id this commit is stored under, once known; see setId. */
+    private transient String id;
     private String timestamp;
     private String message;
     // key = name of file, value = sha1 of contents + fileName
-    HashMap<String, String> filesList;
+    private HashMap<String, String> filesList;
+    /** The encoded file list of a decoded commit, until getFilesList decodes it. */
+    private transient byte[] encodedFiles;
     private String parent;
     private String parent2;
     /** for formatting date
@@ -37,7 +52,6 @@ public class Commit implements Serializable {
 
     // initial commit constructor with 0 arguments
     public Commit() {
-        this.id = sha1(serialize(this));
         this.parent = null;
         this.timestamp = getTimestamp(); // come back to this
         this.filesList = new HashMap<>();
@@ -45,7 +59,6 @@ public class Commit implements Serializable {
     }
 
     public Commit(String message, String parent) {
-        this.id = sha1(serialize(this));
         this.timestamp = getTimestamp();
         this.message = message;
         this.filesList = new HashMap<>();
@@ -53,11 +66,45 @@ public class Commit implements Serializable {
         this.parent2 = null;
     }
 
+    // used when decoding a stored commit
+    Commit(String timestamp, String message, String parent, String parent2,
+           HashMap<String, String> filesList) {
+        this.timestamp = timestamp;
+        this.message = message;
+        this.parent = parent;
+        this.parent2 = parent2;
+        this.filesList = filesList;
+    }
+
+    // field order here is the commit's on-disk layout, and so decides its sha1
+    void writeTo(DataOutputStream out) throws IOException {
+        ObjectCodec.writeString(out, timestamp);
+        ObjectCodec.writeString(out, message);
+        ObjectCodec.writeString(out, parent);
+        ObjectCodec.writeString(out, parent2);
+        if (encodedFiles != null) {
+            out.write(encodedFiles);
+        } else {
+            ObjectCodec.writeStringMap(out, filesList);
+        }
+    }
+
+    // the file list is the rest of IN, and is kept encoded
+    static Commit readFrom(DataInputStream in) throws IOException {
+        String timestamp = ObjectCodec.readString(in);
+        String message = ObjectCodec.readString(in);
+        String parent = ObjectCodec.readString(in);
+        String parent2 = ObjectCodec.readString(in);
+        Commit commit = new Commit(timestamp, message, parent, parent2, null);
+        commit.encodedFiles = in.readAllBytes();
+        return commit;
+    }
+
     @Override
     public String toString() {
         String output = "";
         output += "===\n";
-        output += ("commit " + sha1(serialize(this)) + "\n");
+        output += ("commit " + getId() + "\n");
         if (parent2 != null) {
             output += "Merge: " + parent.substring(0, 7) + " "
                     + parent2.substring(0, 7) + "\n";
@@ -71,7 +118,13 @@ public class Commit implements Serializable {
     }
 
     public String getId() {
-        return sha1(serialize(this));
+        return id != null ? id : hash(serialize(this));
+    }
+
+    // records that this commit is stored as ID, so getId need not hash it again; only
+    // for commits that will not change any more
+    void setId(String id) {
+        this.id = id;
     }
 
     public String getTimestamp() {
@@ -82,11 +135,25 @@ public class Commit implements Serializable {
         return formattedTimestamp;
     }
 
+    // the stored date line, as opposed to getTimestamp which formats the current time
+    public String getDate() {
+        return timestamp;
+    }
+
     public String getMessage() {
         return message;
     }
 
     public HashMap<String, String> getFilesList() {
+        if (encodedFiles != null) {
+            try {
+                filesList = ObjectCodec.readStringMap(
+                        new DataInputStream(new ByteArrayInputStream(encodedFiles)));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            encodedFiles = null;
+        }
         return filesList;
     }
 
@@ -94,6 +161,10 @@ public class Commit implements Serializable {
         return parent;
     }
 
+    public String getParent2() {
+        return parent2;
+    }
+
     public void setParent2(String parent2) {
         this.parent2 = parent2;
     }
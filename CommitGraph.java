@@ -0,0 +1,284 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import gitlet.ObjectDatabase.Namespace;
+
+import static gitlet.Utils.deserialize;
+import static gitlet.Utils.serialize;
+
+/** Gives every commit a small integer position and records its parents by
+ *  position, so history walks never have to open commit files.  Parents
+ *  always get lower positions than their children, which is what lets the
+ *  reachability bitmaps be built bottom-up.
+ *
+ *  The graph is stored as a snapshot plus a tail of small entries, one per
+ *  commit appended since, named after the snapshot with the commit's
+ *  position added ("commit-graph.57").  A commit writes only its own tail
+ *  entry, and the tail is folded into a new snapshot once it holds more
+ *  than an eighth of the graph, so each commit costs amortized constant
+ *  work instead of a rewrite of the whole graph.  The price is that loading
+ *  reads up to that many tail entries after the snapshot.
+ *  @author Jackson Qi
+ */
+public class CommitGraph implements Serializable {
+
+    /** Pinned so files written before ObjectCodec still deserialize. */
+    private static final long serialVersionUID = -5740245394975664720L;
+
+    private final ArrayList<ObjectId> ids = new ArrayList<>();
+    private final ArrayList<int[]> parents = new ArrayList<>();
+    private transient HashMap<ObjectId, Integer> positions;
+    /** Where the snapshot was loaded from or last saved to. */
+    private transient ObjectDatabase db;
+    private transient String name;
+    /** How many commits the snapshot holds; the rest are in the tail. */
+    private transient int stored;
+
+    /** Fewest tail entries that are worth folding into the snapshot. */
+    private static final int MIN_TAIL = 64;
+
+    // loads the graph stored as NAME in DB, building it from DB's commits if it was never written
+    public static CommitGraph load(ObjectDatabase db, String name) {
+        byte[] snapshot = db.get(Namespace.ROOT, name);
+        if (snapshot == null) {
+            CommitGraph graph = build(db);
+            graph.save(db, name);
+            return graph;
+        }
+        CommitGraph graph = deserialize(snapshot, CommitGraph.class);
+        graph.db = db;
+        graph.name = name;
+        graph.stored = graph.size();
+        // a tail entry whose commit is gone, or is already in the graph, was left
+        // behind by a snapshot written without it; nothing after it is current
+        for (byte[] entry = db.get(Namespace.ROOT, graph.tailName(graph.size())); entry != null;
+             entry = db.get(Namespace.ROOT, graph.tailName(graph.size()))) {
+            String[] record = new String(entry, StandardCharsets.UTF_8).split(" ");
+            String parent = record.length > 1 ? record[1] : null;
+            String parent2 = record.length > 2 ? record[2] : null;
+            if (graph.contains(record[0]) || !db.has(Namespace.COMMITS, record[0])
+                    || parent != null && !graph.contains(parent)
+                    || parent2 != null && !graph.contains(parent2)) {
+                break;
+            }
+            graph.add(record[0], parent, parent2);
+        }
+        return graph;
+    }
+
+    // writes the whole graph as NAME in DB and clears the tail
+    public void save(ObjectDatabase database, String snapshotName) {
+        db = database;
+        name = snapshotName;
+        db.put(Namespace.ROOT, name, serialize(this));
+        for (int pos = stored; pos < size() || db.has(Namespace.ROOT, tailName(pos)); pos++) {
+            db.delete(Namespace.ROOT, tailName(pos));
+        }
+        stored = size();
+    }
+
+    // adds a commit as add does, and stores it by writing one tail entry
+    public int append(String commitID, String parent, String parent2) {
+        if (contains(commitID)) {
+            return position(commitID);
+        }
+        int pos = add(commitID, parent, parent2);
+        if (size() - stored > Math.max(MIN_TAIL, stored / 8)) {
+            save(db, name);
+        } else {
+            String record = commitID + (parent == null ? "" : " " + parent)
+                    + (parent2 == null ? "" : " " + parent2);
+            db.put(Namespace.ROOT, tailName(pos), record.getBytes(StandardCharsets.UTF_8));
+        }
+        return pos;
+    }
+
+    // a commit's parents must already be in the graph before it is added
+    public int add(String commitID, String parent, String parent2) {
+        ObjectId id = ObjectId.fromString(commitID);
+        Integer existing = positions().get(id);
+        if (existing != null) {
+            return existing;
+        }
+        int[] parentPositions;
+        if (parent == null) {
+            parentPositions = new int[0];
+        } else if (parent2 == null) {
+            parentPositions = new int[]{position(parent)};
+        } else {
+            parentPositions = new int[]{position(parent), position(parent2)};
+        }
+        ids.add(id);
+        parents.add(parentPositions);
+        positions().put(id, ids.size() - 1);
+        return ids.size() - 1;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public boolean contains(String commitID) {
+        return positions().containsKey(ObjectId.fromString(commitID));
+    }
+
+    public int position(String commitID) {
+        Integer pos = positions().get(ObjectId.fromString(commitID));
+        if (pos == null) {
+            throw new IllegalArgumentException("commit not in graph: " + commitID);
+        }
+        return pos;
+    }
+
+    public String idAt(int position) {
+        return ids.get(position).toString();
+    }
+
+    public int[] parentsOf(int position) {
+        return parents.get(position);
+    }
+
+    // a renumbered copy holding only the commits in KEEP, which must include all their parents
+    public CommitGraph retain(BitSet keep) {
+        CommitGraph kept = new CommitGraph();
+        for (int pos = keep.nextSetBit(0); pos >= 0; pos = keep.nextSetBit(pos + 1)) {
+            int[] ps = parents.get(pos);
+            kept.add(idAt(pos), ps.length > 0 ? idAt(ps[0]) : null,
+                    ps.length > 1 ? idAt(ps[1]) : null);
+        }
+        // so that saving it clears this graph's tail
+        kept.db = db;
+        kept.name = name;
+        kept.stored = stored;
+        return kept;
+    }
+
+    // expands an abbreviated id, or returns null if nothing matches
+    public String resolve(String prefix) {
+        for (ObjectId id : ids) {
+            if (id.startsWith(prefix)) {
+                return id.toString();
+            }
+        }
+        return null;
+    }
+
+    // every commit reachable from START, stopping at commits for which KNOWN has a bitmap
+    public BitSet reachableFrom(int start, IntFunction<ReachabilityBitmap> known) {
+        BitSet seen = new BitSet(ids.size());
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (seen.get(pos)) {
+                continue;
+            }
+            ReachabilityBitmap cached = pos == start ? null : known.apply(pos);
+            if (cached != null) {
+                seen.or(cached.toBitSet());
+                continue;
+            }
+            seen.set(pos);
+            for (int p : parents.get(pos)) {
+                stack.push(p);
+            }
+        }
+        return seen;
+    }
+
+    // ids in position order, each followed by its parent count and parent positions
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            ObjectCodec.writeString(out, ids.get(i).toString());
+            out.writeByte(parents.get(i).length);
+            for (int p : parents.get(i)) {
+                out.writeInt(p);
+            }
+        }
+    }
+
+    static CommitGraph readFrom(DataInputStream in) throws IOException {
+        CommitGraph graph = new CommitGraph();
+        int size = in.readInt();
+        graph.ids.ensureCapacity(size);
+        graph.parents.ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            graph.ids.add(ObjectId.fromString(ObjectCodec.readString(in)));
+            int[] ps = new int[in.readByte()];
+            for (int j = 0; j < ps.length; j++) {
+                ps[j] = in.readInt();
+            }
+            graph.parents.add(ps);
+        }
+        return graph;
+    }
+
+    private String tailName(int position) {
+        return name + "." + position;
+    }
+
+    private HashMap<ObjectId, Integer> positions() {
+        if (positions == null) {
+            positions = new HashMap<>();
+            for (int i = 0; i < ids.size(); i++) {
+                positions.put(ids.get(i), i);
+            }
+        }
+        return positions;
+    }
+
+    // one-time scan of every commit, adding parents before children
+    private static CommitGraph build(ObjectDatabase db) {
+        HashMap<String, Commit> commits = new HashMap<>();
+        for (String id : db.list(Namespace.COMMITS)) {
+            commits.put(id, deserialize(db.get(Namespace.COMMITS, id), Commit.class));
+        }
+        CommitGraph graph = new CommitGraph();
+        for (String id : commits.keySet()) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String top = stack.peek();
+                if (graph.contains(top)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit c = commits.get(top);
+                // a shallow clone has no commits past its boundary, which become roots
+                String parent = commits.containsKey(c.getParent()) ? c.getParent() : null;
+                String parent2 = commits.containsKey(c.getParent2()) ? c.getParent2() : null;
+                if (parent == null) {
+                    parent = parent2;
+                    parent2 = null;
+                }
+                List<String> missing = new ArrayList<>();
+                for (String p : new String[]{parent, parent2}) {
+                    if (p != null && !graph.contains(p)) {
+                        missing.add(p);
+                    }
+                }
+                if (missing.isEmpty()) {
+                    graph.add(stack.pop(), parent, parent2);
+                } else {
+                    for (String p : missing) {
+                        stack.push(p);
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+}
@@ -0,0 +1,379 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line diffs between two versions of a file, printed in unified format.
+ *
+ *  Lines are interned to small integers first, so the comparison itself
+ *  never touches a string.  A line that occurs in only one version cannot
+ *  be part of any common subsequence; such lines are marked changed up
+ *  front and left out of the search, which keeps rewrites of large files
+ *  cheap.  What remains goes to Myers' O(ND) algorithm in its linear-space
+ *  form: each step finds the middle snake of the shortest edit script by
+ *  searching from both ends at once, then recurses on the halves on either
+ *  side of it.
+ *  @author Jackson Qi
+ */
+class Diff {
+
+    /** Unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+
+    /** The lines of one version, the last one possibly without its newline. */
+    private final List<String> oldLines;
+    private final List<String> newLines;
+    private final boolean oldEndsInNewline;
+    private final boolean newEndsInNewline;
+    /** The interned lines of each version, and which of them the diff changes. */
+    private final int[] a;
+    private final int[] b;
+    private final boolean[] deleted;
+    private final boolean[] inserted;
+
+    private Diff(String oldContents, String newContents) {
+        oldLines = lines(oldContents);
+        newLines = lines(newContents);
+        oldEndsInNewline = oldContents.isEmpty() || oldContents.endsWith("\n");
+        newEndsInNewline = newContents.isEmpty() || newContents.endsWith("\n");
+        HashMap<String, Integer> ids = new HashMap<>();
+        a = intern(oldLines, !oldEndsInNewline, ids);
+        b = intern(newLines, !newEndsInNewline, ids);
+        deleted = new boolean[a.length];
+        inserted = new boolean[b.length];
+    }
+
+    // prints the diff between OLDCONTENTS and NEWCONTENTS of the file OLDNAME, now NEWNAME,
+    // to OUT; null contents mean the file does not exist on that side
+    static void print(String oldName, String oldContents, String newName, String newContents,
+                      PrintStream out) {
+        out.println("diff --git a/" + (oldName == null ? newName : oldName)
+                + " b/" + (newName == null ? oldName : newName));
+        if (oldContents == null) {
+            out.println("new file");
+        } else if (newContents == null) {
+            out.println("deleted file");
+        }
+        out.println("--- " + (oldContents == null ? "/dev/null" : "a/" + oldName));
+        out.println("+++ " + (newContents == null ? "/dev/null" : "b/" + newName));
+        Diff diff = new Diff(oldContents == null ? "" : oldContents,
+                newContents == null ? "" : newContents);
+        diff.compute();
+        diff.printHunks(out);
+    }
+
+    // for each line of NEWCONTENTS, the index of the line of OLDCONTENTS it was left
+    // unchanged from, or -1 if the diff inserts it
+    static int[] unchangedLines(String oldContents, String newContents) {
+        Diff diff = new Diff(oldContents, newContents);
+        diff.compute();
+        int[] from = new int[diff.b.length];
+        int i = 0;
+        for (int j = 0; j < from.length; j++) {
+            while (i < diff.a.length && diff.deleted[i]) {
+                i++;
+            }
+            from[j] = diff.inserted[j] ? -1 : i++;
+        }
+        return from;
+    }
+
+    // the lines of CONTENTS, without their newlines
+    static List<String> lines(String contents) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < contents.length()) {
+            int newline = contents.indexOf('\n', start);
+            int end = newline < 0 ? contents.length() : newline;
+            lines.add(contents.substring(start, end));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    // a last line without a newline differs from the same text with one
+    private static int[] intern(List<String> lines, boolean lastUnterminated,
+                                HashMap<String, Integer> ids) {
+        int[] interned = new int[lines.size()];
+        for (int i = 0; i < interned.length; i++) {
+            String key = lastUnterminated && i == interned.length - 1
+                    ? lines.get(i) + "\n\\" : lines.get(i);
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = ids.size();
+                ids.put(key, id);
+            }
+            interned[i] = id;
+        }
+        return interned;
+    }
+
+    private void compute() {
+        int numIds = 0;
+        for (int id : a) {
+            numIds = Math.max(numIds, id + 1);
+        }
+        for (int id : b) {
+            numIds = Math.max(numIds, id + 1);
+        }
+        boolean[] inA = new boolean[numIds];
+        boolean[] inB = new boolean[numIds];
+        for (int id : a) {
+            inA[id] = true;
+        }
+        for (int id : b) {
+            inB[id] = true;
+        }
+
+        // only lines found on both sides are worth searching for
+        int[] aIndex = new int[a.length];
+        int[] bIndex = new int[b.length];
+        int aCount = 0;
+        int bCount = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (inB[a[i]]) {
+                aIndex[aCount++] = i;
+            } else {
+                deleted[i] = true;
+            }
+        }
+        for (int j = 0; j < b.length; j++) {
+            if (inA[b[j]]) {
+                bIndex[bCount++] = j;
+            } else {
+                inserted[j] = true;
+            }
+        }
+        int[] x = new int[aCount];
+        int[] y = new int[bCount];
+        for (int i = 0; i < aCount; i++) {
+            x[i] = a[aIndex[i]];
+        }
+        for (int j = 0; j < bCount; j++) {
+            y[j] = b[bIndex[j]];
+        }
+        boolean[] xDeleted = new boolean[aCount];
+        boolean[] yInserted = new boolean[bCount];
+        new Myers(x, y, xDeleted, yInserted).compare(0, aCount, 0, bCount);
+        for (int i = 0; i < aCount; i++) {
+            deleted[aIndex[i]] = xDeleted[i];
+        }
+        for (int j = 0; j < bCount; j++) {
+            inserted[bIndex[j]] = yInserted[j];
+        }
+    }
+
+    /** Marks the lines of X and Y that a shortest edit script deletes and inserts. */
+    private static class Myers {
+        private final int[] x;
+        private final int[] y;
+        private final boolean[] xDeleted;
+        private final boolean[] yInserted;
+
+        Myers(int[] x, int[] y, boolean[] xDeleted, boolean[] yInserted) {
+            this.x = x;
+            this.y = y;
+            this.xDeleted = xDeleted;
+            this.yInserted = yInserted;
+        }
+
+        // diffs X[XLO, XHI) against Y[YLO, YHI)
+        void compare(int xLo, int xHi, int yLo, int yHi) {
+            while (xLo < xHi && yLo < yHi && x[xLo] == y[yLo]) {
+                xLo++;
+                yLo++;
+            }
+            while (xLo < xHi && yLo < yHi && x[xHi - 1] == y[yHi - 1]) {
+                xHi--;
+                yHi--;
+            }
+            if (xLo == xHi || yLo == yHi) {
+                for (int i = xLo; i < xHi; i++) {
+                    xDeleted[i] = true;
+                }
+                for (int j = yLo; j < yHi; j++) {
+                    yInserted[j] = true;
+                }
+                return;
+            }
+            int[] split = middleSnake(xLo, xHi, yLo, yHi);
+            if (split == null) {
+                compare(xLo, xHi, yHi, yHi);
+                compare(xHi, xHi, yLo, yHi);
+                return;
+            }
+            compare(xLo, split[0], yLo, split[1]);
+            compare(split[0], xHi, split[1], yHi);
+        }
+
+        // a point where the forward and backward searches for a shortest edit script
+        // meet, which splits the problem in two; null if the ranges share nothing
+        private int[] middleSnake(int xLo, int xHi, int yLo, int yHi) {
+            int n = xHi - xLo;
+            int m = yHi - yLo;
+            int maxD = (n + m + 1) / 2;
+            int offset = maxD;
+            int length = 2 * maxD + 2;
+            int[] forward = new int[length];
+            int[] backward = new int[length];
+            Arrays.fill(forward, -1);
+            Arrays.fill(backward, -1);
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int kStart1 = 0;
+            int kEnd1 = 0;
+            int kStart2 = 0;
+            int kEnd2 = 0;
+            for (int d = 0; d < maxD; d++) {
+                for (int k = -d + kStart1; k <= d - kEnd1; k += 2) {
+                    int i = offset + k;
+                    int px = k == -d || (k != d && forward[i - 1] < forward[i + 1])
+                            ? forward[i + 1] : forward[i - 1] + 1;
+                    int py = px - k;
+                    while (px < n && py < m && x[xLo + px] == y[yLo + py]) {
+                        px++;
+                        py++;
+                    }
+                    forward[i] = px;
+                    if (px > n) {
+                        kEnd1 += 2;
+                    } else if (py > m) {
+                        kStart1 += 2;
+                    } else if (odd) {
+                        int j = offset + delta - k;
+                        if (j >= 0 && j < length && backward[j] != -1 && px >= n - backward[j]) {
+                            return new int[]{xLo + px, yLo + py};
+                        }
+                    }
+                }
+                for (int k = -d + kStart2; k <= d - kEnd2; k += 2) {
+                    int i = offset + k;
+                    int px = k == -d || (k != d && backward[i - 1] < backward[i + 1])
+                            ? backward[i + 1] : backward[i - 1] + 1;
+                    int py = px - k;
+                    while (px < n && py < m && x[xHi - px - 1] == y[yHi - py - 1]) {
+                        px++;
+                        py++;
+                    }
+                    backward[i] = px;
+                    if (px > n) {
+                        kEnd2 += 2;
+                    } else if (py > m) {
+                        kStart2 += 2;
+                    } else if (!odd) {
+                        int j = offset + delta - k;
+                        if (j >= 0 && j < length && forward[j] != -1) {
+                            int fx = forward[j];
+                            int fy = fx - (j - offset);
+                            if (fx >= n - px) {
+                                return new int[]{xLo + fx, yLo + fy};
+                            }
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /** A run of deleted lines [OLDSTART, OLDEND) replaced by [NEWSTART, NEWEND). */
+    private static class Change {
+        final int oldStart;
+        final int oldEnd;
+        final int newStart;
+        final int newEnd;
+
+        Change(int oldStart, int oldEnd, int newStart, int newEnd) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+    }
+
+    private void printHunks(PrintStream out) {
+        List<Change> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if ((i < a.length && deleted[i]) || (j < b.length && inserted[j])) {
+                int oldStart = i;
+                int newStart = j;
+                while (i < a.length && deleted[i]) {
+                    i++;
+                }
+                while (j < b.length && inserted[j]) {
+                    j++;
+                }
+                changes.add(new Change(oldStart, i, newStart, j));
+            } else {
+                i++;
+                j++;
+            }
+        }
+
+        // changes closer together than twice the context share a hunk
+        int first = 0;
+        while (first < changes.size()) {
+            int last = first;
+            while (last + 1 < changes.size()
+                    && changes.get(last + 1).oldStart - changes.get(last).oldEnd
+                    <= 2 * CONTEXT) {
+                last++;
+            }
+            printHunk(changes, first, last, out);
+            first = last + 1;
+        }
+    }
+
+    private void printHunk(List<Change> changes, int first, int last, PrintStream out) {
+        Change head = changes.get(first);
+        Change tail = changes.get(last);
+        int lead = Math.min(CONTEXT, head.oldStart);
+        int trail = Math.min(CONTEXT, a.length - tail.oldEnd);
+        int oldStart = head.oldStart - lead;
+        int newStart = head.newStart - lead;
+        int oldEnd = tail.oldEnd + trail;
+        int newEnd = tail.newEnd + trail;
+        out.println("@@ -" + range(oldStart, oldEnd - oldStart)
+                + " +" + range(newStart, newEnd - newStart) + " @@");
+
+        int i = oldStart;
+        int j = newStart;
+        while (i < oldEnd || j < newEnd) {
+            if (i < oldEnd && deleted[i]) {
+                printLine('-', oldLines, i, oldEndsInNewline, out);
+                i++;
+            } else if (j < newEnd && inserted[j]) {
+                printLine('+', newLines, j, newEndsInNewline, out);
+                j++;
+            } else {
+                printLine(' ', oldLines, i, oldEndsInNewline, out);
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private static void printLine(char mark, List<String> lines, int index,
+                                  boolean endsInNewline, PrintStream out) {
+        out.println(mark + lines.get(index));
+        if (!endsInNewline && index == lines.size() - 1) {
+            out.println("\\ No newline at end of file");
+        }
+    }
+
+    // START and COUNT as a hunk header shows them: one-based, and the line before an
+    // empty range
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+}
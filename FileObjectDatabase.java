@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.join;
+import static gitlet.Utils.plainFilenamesIn;
+import static gitlet.Utils.readContents;
+import static gitlet.Utils.writeContents;
+
+/** The .gitlet layout gitlet has always used: one directory per namespace
+ *  and one file per entry, with ROOT entries directly in .gitlet.
+ *  @author Jackson Qi
+ */
+public class FileObjectDatabase implements ObjectDatabase {
+
+    /** Sits in .gitlet beside the ROOT entries, but is RepositoryLock's, not one of them. */
+    private static final String LOCK_FILE = "lock";
+    /** Marks a put that has not been renamed into place yet. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File gitletDir;
+
+    public FileObjectDatabase(File gitletDir) {
+        this.gitletDir = gitletDir;
+    }
+
+    @Override
+    public byte[] get(Namespace namespace, String name) {
+        File file = file(namespace, name);
+        return file.isFile() ? readContents(file) : null;
+    }
+
+    // written beside NAME and renamed over it, so NAME is never half written
+    @Override
+    public void put(Namespace namespace, String name, byte[] contents) {
+        File dir = directory(namespace);
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+        File temp = join(dir, name + TEMP_SUFFIX);
+        writeContents(temp, contents);
+        try {
+            Files.move(temp.toPath(), join(dir, name).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public void append(Namespace namespace, String name, byte[] contents) {
+        File dir = directory(namespace);
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+        try (FileOutputStream out = new FileOutputStream(join(dir, name), true)) {
+            out.write(contents);
+            out.getFD().sync();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public boolean has(Namespace namespace, String name) {
+        return file(namespace, name).isFile();
+    }
+
+    @Override
+    public void delete(Namespace namespace, String name) {
+        File file = file(namespace, name);
+        if (file.isFile()) {
+            file.delete();
+        }
+    }
+
+    @Override
+    public List<String> list(Namespace namespace) {
+        List<String> names = plainFilenamesIn(directory(namespace));
+        if (names == null) {
+            return new ArrayList<>();
+        }
+        names = new ArrayList<>(names);
+        names.removeIf(name -> name.endsWith(TEMP_SUFFIX));
+        if (namespace == Namespace.ROOT) {
+            names.remove(LOCK_FILE);
+        }
+        return names;
+    }
+
+    @Override
+    public long lastModified(Namespace namespace, String name) {
+        return file(namespace, name).lastModified();
+    }
+
+    @Override
+    public long size(Namespace namespace, String name) {
+        File file = file(namespace, name);
+        return file.isFile() ? file.length() : 0;
+    }
+
+    // every write already went straight to its own file
+    @Override
+    public void close() {
+    }
+
+    private File directory(Namespace namespace) {
+        return namespace.directory().isEmpty()
+                ? gitletDir : join(gitletDir, namespace.directory());
+    }
+
+    // an empty NAME would name the directory itself, which is never an entry
+    private File file(Namespace namespace, String name) {
+        return name.isEmpty() ? directory(namespace) : join(directory(namespace), name);
+    }
+}
@@ -0,0 +1,192 @@
+package gitlet;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** The hash functions gitlet knows about.  A repository picks its object
+ *  hash once, at init, and records the choice in .gitlet/hash; every commit
+ *  id, blob key and filesList value in that repository comes from it.
+ *  Repositories without the file are SHA-1.
+ *
+ *  MURMUR3_128 is not collision resistant and can never name objects.  It
+ *  is only for spotting probably-equal content cheaply.
+ *  @author Jackson Qi
+ */
+public enum HashAlgorithm {
+
+    SHA1("sha1", "SHA-1", 20, true),
+    SHA256("sha256", "SHA-256", 32, true),
+    MURMUR3_128("murmur3", null, 16, false);
+
+    /** The object hash of the repository each thread is working in. */
+    private static final ThreadLocal<HashAlgorithm> CURRENT =
+            ThreadLocal.withInitial(() -> SHA1);
+
+    private final String name;
+    private final int rawLength;
+    private final boolean objectHash;
+    private final ThreadLocal<MessageDigest> digests;
+
+    HashAlgorithm(String name, String jcaName, int rawLength, boolean objectHash) {
+        this.name = name;
+        this.rawLength = rawLength;
+        this.objectHash = objectHash;
+        this.digests = jcaName == null ? null : ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(jcaName);
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support " + jcaName);
+            }
+        });
+    }
+
+    // the algorithm of the repository this thread last used, SHA1 before any
+    public static HashAlgorithm current() {
+        return CURRENT.get();
+    }
+
+    // called by Repository whenever one of its commands starts
+    public static void setCurrent(HashAlgorithm algorithm) {
+        CURRENT.set(algorithm);
+    }
+
+    // looks an algorithm up by the name stored in .gitlet/hash; null if unknown
+    public static HashAlgorithm forName(String name) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(name)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int rawLength() {
+        return rawLength;
+    }
+
+    // whether ids from this algorithm can safely name commits and blobs
+    public boolean isObjectHash() {
+        return objectHash;
+    }
+
+    /** Returns the hash of the concatenation of VALS, which may be any
+     *  mixture of byte arrays and Strings. */
+    public byte[] digest(Object... vals) {
+        if (digests == null) {
+            return murmur3(concat(vals));
+        }
+        MessageDigest md = digests.get();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                md.reset();
+                throw new IllegalArgumentException("improper type to " + name);
+            }
+        }
+        return md.digest();
+    }
+
+    private static byte[] concat(Object... vals) {
+        if (vals.length == 1 && vals[0] instanceof byte[]) {
+            return (byte[]) vals[0];
+        }
+        byte[][] parts = new byte[vals.length][];
+        int total = 0;
+        for (int i = 0; i < vals.length; i++) {
+            if (vals[i] instanceof byte[]) {
+                parts[i] = (byte[]) vals[i];
+            } else if (vals[i] instanceof String) {
+                parts[i] = ((String) vals[i]).getBytes(StandardCharsets.UTF_8);
+            } else {
+                throw new IllegalArgumentException("improper type to murmur3");
+            }
+            total += parts[i].length;
+        }
+        byte[] all = new byte[total];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, all, pos, part.length);
+            pos += part.length;
+        }
+        return all;
+    }
+
+    /* MURMURHASH3 x64 128, seed 0 */
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final VarHandle LITTLE_ENDIAN_LONG =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static byte[] murmur3(byte[] data) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = data.length / 16;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = littleEndianLong(data, i * 16);
+            long k2 = littleEndianLong(data, i * 16 + 8);
+            h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks * 16;
+        for (int i = data.length - tail - 1; i >= 8; i--) {
+            k2 = (k2 << 8) | (data[tail + i] & 0xffL);
+        }
+        for (int i = Math.min(data.length - tail, 8) - 1; i >= 0; i--) {
+            k1 = (k1 << 8) | (data[tail + i] & 0xffL);
+        }
+        if (data.length - tail > 8) {
+            h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+        }
+        if (data.length - tail > 0) {
+            h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+        }
+
+        h1 ^= data.length;
+        h2 ^= data.length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        byte[] out = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            out[i] = (byte) (h1 >>> (56 - 8 * i));
+            out[8 + i] = (byte) (h2 >>> (56 - 8 * i));
+        }
+        return out;
+    }
+
+    private static long littleEndianLong(byte[] data, int offset) {
+        return (long) LITTLE_ENDIAN_LONG.get(data, offset);
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -1,9 +1,15 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 
 public class Head implements Serializable {
 
+    /** Pinned so files written before ObjectCodec still deserialize. */
+    private static final long serialVersionUID = 4923848798361780644L;
+
     String HEAD; // sha1 of the current commit
     String branch; // name of the branch
 
@@ -12,5 +18,15 @@ public class Head implements Serializable {
         this.branch = branch;
     }
 
+    void writeTo(DataOutputStream out) throws IOException {
+        ObjectCodec.writeString(out, HEAD);
+        ObjectCodec.writeString(out, branch);
+    }
+
+    static Head readFrom(DataInputStream in) throws IOException {
+        String head = ObjectCodec.readString(in);
+        return new Head(head, ObjectCodec.readString(in));
+    }
+
 
 }
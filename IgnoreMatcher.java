@@ -0,0 +1,299 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.join;
+import static gitlet.Utils.readContentsAsString;
+
+/** The patterns of a .gitletignore file, or of a sparse checkout, which
+ *  follow .gitignore: one per line, # for comments, ! to take a file back
+ *  out, a trailing / for directories only, and *, ? and [...] as wildcards;
+ *  the last pattern that matches a name decides.
+ *
+ *  Gitlet only ever looks at the plain files at the top of the working
+ *  directory and never descends into a directory, so a leading / or any
+ *  number of leading double-star segments change nothing, and a pattern for
+ *  directories only or with a / further in can never match and is dropped.
+ *  The rest are compiled once: a pattern without wildcards goes in a table
+ *  of whole names, "*" followed by a literal in a table of suffixes, a
+ *  literal followed by "*" in a table of prefixes, and the few left over
+ *  into one automaton that runs all of them at once over a name's
+ *  characters.  Each table keeps the last pattern for a key, so a name
+ *  costs one lookup per distinct suffix or prefix length and a single pass
+ *  of the automaton, however many patterns there are.
+ *  @author Jackson Qi
+ */
+class IgnoreMatcher {
+
+    static final String FILE_NAME = ".gitletignore";
+
+    /** Matches nothing, for working directories without a .gitletignore. */
+    static final IgnoreMatcher EMPTY = new IgnoreMatcher(new ArrayList<>());
+
+    /** The pieces of a pattern: a literal character, ?, * or a character class. */
+    private static final char LITERAL = 'l';
+    private static final char ANY = '?';
+    private static final char STAR = '*';
+    private static final char CLASS = '[';
+
+    /** One piece of a pattern; CHARS is the character of a LITERAL, and the
+     *  characters and ranges (as pairs) of a CLASS. */
+    private static class Token {
+        final char kind;
+        final String chars;
+        final boolean negated;
+
+        Token(char kind, String chars, boolean negated) {
+            this.kind = kind;
+            this.chars = chars;
+            this.negated = negated;
+        }
+
+        boolean matches(char c) {
+            if (kind == LITERAL) {
+                return chars.charAt(0) == c;
+            } else if (kind == ANY) {
+                return true;
+            }
+            boolean in = false;
+            for (int i = 0; i < chars.length() && !in; i += 2) {
+                in = chars.charAt(i) <= c && c <= chars.charAt(i + 1);
+            }
+            return in != negated;
+        }
+    }
+
+    /** Whether each pattern, by its position in the file, takes files back out (!). */
+    private final boolean[] negated;
+
+    /** Key -> the last pattern with that key. */
+    private final HashMap<String, Integer> names = new HashMap<>();
+    private final HashMap<String, Integer> suffixes = new HashMap<>();
+    private final HashMap<String, Integer> prefixes = new HashMap<>();
+    private final int[] suffixLengths;
+    private final int[] prefixLengths;
+
+    /** The automaton: every other pattern's tokens end to end, STATE.get(i) meaning
+     *  the pattern that owns position i has matched up to i.  A pattern of n
+     *  tokens owns n + 1 positions, the last meaning it has matched. */
+    private final Token[] tokens;
+    private final int[] owners;
+    private final BitSet starts = new BitSet();
+    private final BitSet ends = new BitSet();
+
+    private IgnoreMatcher(List<String> lines) {
+        int size = lines.size();
+        negated = new boolean[size];
+        TreeSet<Integer> suffixSizes = new TreeSet<>();
+        TreeSet<Integer> prefixSizes = new TreeSet<>();
+        List<Token> automaton = new ArrayList<>();
+        List<Integer> automatonOwners = new ArrayList<>();
+
+        for (int rule = 0; rule < size; rule++) {
+            String pattern = lines.get(rule);
+            if (pattern.startsWith("!")) {
+                negated[rule] = true;
+                pattern = pattern.substring(1);
+            }
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            while (pattern.startsWith("**/")) {
+                pattern = pattern.substring(3);
+            }
+            if (pattern.isEmpty() || pattern.contains("/")) {
+                // a directory, or something inside one
+                continue;
+            }
+
+            List<Token> pieces = tokenize(pattern);
+            int stars = 0;
+            for (Token token : pieces) {
+                stars += token.kind == LITERAL ? 0 : 1;
+            }
+            int last = pieces.size() - 1;
+            if (stars == 0) {
+                names.put(literal(pieces, 0, pieces.size()), rule);
+            } else if (stars == 1 && pieces.get(0).kind == STAR) {
+                String suffix = literal(pieces, 1, pieces.size());
+                suffixes.put(suffix, rule);
+                suffixSizes.add(suffix.length());
+            } else if (stars == 1 && pieces.get(last).kind == STAR) {
+                String prefix = literal(pieces, 0, last);
+                prefixes.put(prefix, rule);
+                prefixSizes.add(prefix.length());
+            } else {
+                starts.set(automaton.size());
+                for (Token token : pieces) {
+                    automaton.add(token);
+                    automatonOwners.add(rule);
+                }
+                ends.set(automaton.size());
+                automaton.add(null);
+                automatonOwners.add(rule);
+            }
+        }
+        suffixLengths = suffixSizes.stream().mapToInt(Integer::intValue).toArray();
+        prefixLengths = prefixSizes.stream().mapToInt(Integer::intValue).toArray();
+        tokens = automaton.toArray(new Token[0]);
+        owners = automatonOwners.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // the patterns in CWD's .gitletignore, or EMPTY if it has none
+    static IgnoreMatcher load(File cwd) {
+        File file = join(cwd, FILE_NAME);
+        if (!file.isFile()) {
+            return EMPTY;
+        }
+        return compile(readContentsAsString(file));
+    }
+
+    // the patterns in TEXT, laid out as in a .gitletignore file
+    static IgnoreMatcher compile(String text) {
+        List<String> patterns = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            String pattern = trimTrailingSpaces(line.endsWith("\r")
+                    ? line.substring(0, line.length() - 1) : line);
+            if (!pattern.isEmpty() && !pattern.startsWith("#")) {
+                patterns.add(pattern);
+            }
+        }
+        return patterns.isEmpty() ? EMPTY : new IgnoreMatcher(patterns);
+    }
+
+    // whether the patterns take in the plain file NAME at the top of the working directory
+    boolean matches(String name) {
+        int rule = names.getOrDefault(name, -1);
+        for (int length : suffixLengths) {
+            if (length > name.length()) {
+                break;
+            }
+            rule = Math.max(rule, suffixes.getOrDefault(
+                    name.substring(name.length() - length), -1));
+        }
+        for (int length : prefixLengths) {
+            if (length > name.length()) {
+                break;
+            }
+            rule = Math.max(rule, prefixes.getOrDefault(name.substring(0, length), -1));
+        }
+        if (tokens.length > 0) {
+            rule = Math.max(rule, runAutomaton(name));
+        }
+        return rule >= 0 && !negated[rule];
+    }
+
+    // the last pattern the automaton matches NAME with, or -1
+    private int runAutomaton(String name) {
+        BitSet state = closure((BitSet) starts.clone());
+        for (int i = 0; i < name.length() && !state.isEmpty(); i++) {
+            char c = name.charAt(i);
+            BitSet next = new BitSet(tokens.length);
+            for (int at = state.nextSetBit(0); at >= 0; at = state.nextSetBit(at + 1)) {
+                Token token = tokens[at];
+                if (token == null) {
+                    continue;
+                } else if (token.kind == STAR) {
+                    next.set(at);
+                } else if (token.matches(c)) {
+                    next.set(at + 1);
+                }
+            }
+            state = closure(next);
+        }
+        int rule = -1;
+        state.and(ends);
+        for (int at = state.nextSetBit(0); at >= 0; at = state.nextSetBit(at + 1)) {
+            rule = Math.max(rule, owners[at]);
+        }
+        return rule;
+    }
+
+    // STATE with every position a * could match nothing at moved past it as well
+    private BitSet closure(BitSet state) {
+        for (int at = state.nextSetBit(0); at >= 0; at = state.nextSetBit(at + 1)) {
+            if (tokens[at] != null && tokens[at].kind == STAR) {
+                state.set(at + 1);
+            }
+        }
+        return state;
+    }
+
+    // the characters of PIECES FROM up to TO, which are all literals
+    private static String literal(List<Token> pieces, int from, int to) {
+        StringBuilder text = new StringBuilder();
+        for (Token token : pieces.subList(from, to)) {
+            text.append(token.chars);
+        }
+        return text.toString();
+    }
+
+    // PATTERN as tokens; runs of * are one *, a backslash makes the next character a
+    // literal, and a [ with no closing ] is a literal too
+    private static List<Token> tokenize(String pattern) {
+        List<Token> pieces = new ArrayList<>();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\' && i + 1 < pattern.length()) {
+                pieces.add(new Token(LITERAL, String.valueOf(pattern.charAt(++i)), false));
+            } else if (c == '*') {
+                if (pieces.isEmpty() || pieces.get(pieces.size() - 1).kind != STAR) {
+                    pieces.add(new Token(STAR, "", false));
+                }
+            } else if (c == '?') {
+                pieces.add(new Token(ANY, "", false));
+            } else if (c == '[' && classEnd(pattern, i) > 0) {
+                int start = i + 1;
+                boolean not = pattern.charAt(start) == '!' || pattern.charAt(start) == '^';
+                int end = classEnd(pattern, i);
+                pieces.add(new Token(CLASS, ranges(pattern.substring(not ? start + 1 : start,
+                        end)), not));
+                i = end;
+            } else {
+                pieces.add(new Token(LITERAL, String.valueOf(c), false));
+            }
+        }
+        return pieces;
+    }
+
+    // the position of the ] closing the character class opened at OPEN, or -1; a ] just
+    // after the [ or its ! is a member
+    private static int classEnd(String pattern, int open) {
+        int start = open + 1;
+        if (start < pattern.length()
+                && (pattern.charAt(start) == '!' || pattern.charAt(start) == '^')) {
+            start++;
+        }
+        return start < pattern.length() ? pattern.indexOf(']', start + 1) : -1;
+    }
+
+    // the inside of a character class as pairs of first and last character
+    private static String ranges(String members) {
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i < members.length(); i++) {
+            char first = members.charAt(i);
+            if (i + 2 < members.length() && members.charAt(i + 1) == '-') {
+                pairs.append(first).append(members.charAt(i + 2));
+                i += 2;
+            } else {
+                pairs.append(first).append(first);
+            }
+        }
+        return pairs.toString();
+    }
+
+    // LINE without its trailing spaces, except one escaped with a backslash
+    private static String trimTrailingSpaces(String line) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' '
+                && !(end > 1 && line.charAt(end - 2) == '\\')) {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+}
@@ -0,0 +1,216 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.error;
+import static gitlet.Utils.join;
+import static gitlet.Utils.toHex;
+
+/** Keeps files of at least a threshold size out of the object database.
+ *
+ *  Such a file is copied whole into the store, a directory outside the
+ *  repository that its clones share, under the SHA-256 of its bytes, and
+ *  history only gets a small pointer blob naming it (see Blob.pointer).
+ *  Nothing is read back from the store until a checkout needs the file.
+ *  Then it is copied into a cache in .gitlet, several files at once, and
+ *  written into the working directory from there.  The cache keeps the
+ *  files used most recently, up to a limit: a file's modification time is
+ *  set whenever it is used, and the oldest go first once the cache is over
+ *  its limit.
+ *
+ *  The settings are the ROOT entry Repository.LARGE_FILES_NAME, a map with
+ *  the keys "store", "threshold" and "cache".
+ *  @author Jackson Qi
+ */
+class LargeFileStore {
+
+    static final long DEFAULT_THRESHOLD = 10L << 20;
+    static final long DEFAULT_CACHE_LIMIT = 1L << 30;
+    private static final String CACHE_DIR = "large-cache";
+
+    private final File store;
+    private final File cache;
+    private final long threshold;
+    private final long cacheLimit;
+
+    LargeFileStore(File store, File gitletDir, long threshold, long cacheLimit) {
+        this.store = store;
+        this.cache = join(gitletDir, CACHE_DIR);
+        this.threshold = threshold;
+        this.cacheLimit = cacheLimit;
+    }
+
+    // the store CONFIG describes, for the repository in GITLETDIR; null if CONFIG is
+    static LargeFileStore fromConfig(Map<String, String> config, File gitletDir) {
+        if (config == null) {
+            return null;
+        }
+        return new LargeFileStore(new File(config.get("store")), gitletDir,
+                Long.parseLong(config.get("threshold")), Long.parseLong(config.get("cache")));
+    }
+
+    HashMap<String, String> toConfig() {
+        HashMap<String, String> config = new HashMap<>();
+        config.put("store", store.getAbsolutePath());
+        config.put("threshold", Long.toString(threshold));
+        config.put("cache", Long.toString(cacheLimit));
+        return config;
+    }
+
+    // whether FILE is big enough to be kept here
+    boolean takes(File file) {
+        return file.length() >= threshold;
+    }
+
+    // the text of the pointer to the object ID of LENGTH bytes, which the pointer blob's
+    // id is the hash of
+    static String pointer(String id, long length) {
+        return "gitlet large file\nsha256 " + id + "\nsize " + length + "\n";
+    }
+
+    // the id FILE would have here, without storing it
+    static String objectID(File file) {
+        MessageDigest sha256 = sha256();
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), sha256)) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(sha256.digest());
+    }
+
+    // copies FILE into the store unless it is there already, and returns its id
+    String put(File file) {
+        store.mkdirs();
+        MessageDigest sha256 = sha256();
+        File temp;
+        try {
+            temp = File.createTempFile("large-", ".tmp", store);
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = new DigestOutputStream(new FileOutputStream(temp), sha256)) {
+                in.transferTo(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = toHex(sha256.digest());
+        install(temp, object(id));
+        return id;
+    }
+
+    // writes the object ID to OUT, bringing it into the cache first if need be
+    void copy(String id, OutputStream out) throws IOException {
+        try (InputStream in = new FileInputStream(materialize(id))) {
+            in.transferTo(out);
+        }
+    }
+
+    // brings every object of IDS that is not cached yet into the cache, several at once
+    void prefetch(Collection<String> ids) {
+        ids.parallelStream().distinct().forEach(this::materialize);
+    }
+
+    // the cached copy of the object ID, copied from the store and checked against ID
+    // if there is none yet; marks it as just used either way
+    private File materialize(String id) {
+        File cached = join(cache, id);
+        if (cached.isFile()) {
+            cached.setLastModified(System.currentTimeMillis());
+            return cached;
+        }
+        File source = object(id);
+        if (!source.isFile()) {
+            throw error("Large file %s is not in %s.", id, store);
+        }
+        cache.mkdirs();
+        MessageDigest sha256 = sha256();
+        File temp;
+        try {
+            temp = File.createTempFile("large-", ".tmp", cache);
+            try (InputStream in = new FileInputStream(source);
+                 OutputStream out = new DigestOutputStream(new FileOutputStream(temp), sha256)) {
+                in.transferTo(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!toHex(sha256.digest()).equals(id)) {
+            temp.delete();
+            throw error("Large file %s is corrupt.", id);
+        }
+        install(temp, cached);
+        evict(cached);
+        return cached;
+    }
+
+    // removes the least recently used cached objects but KEEP until the cache fits
+    private synchronized void evict(File keep) {
+        File[] files = cache.listFiles((dir, name) -> !name.endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        List<File> oldestFirst = new ArrayList<>(Arrays.asList(files));
+        oldestFirst.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : oldestFirst) {
+            if (total <= cacheLimit) {
+                break;
+            }
+            if (!file.equals(keep)) {
+                total -= file.length();
+                file.delete();
+            }
+        }
+    }
+
+    // the object ID in the store, under a directory named by its first two digits
+    private File object(String id) {
+        return join(store, id.substring(0, 2), id.substring(2));
+    }
+
+    // moves TEMP to TARGET, or drops it if TARGET is there already
+    private static void install(File temp, File target) {
+        if (target.isFile()) {
+            temp.delete();
+            return;
+        }
+        target.getParentFile().mkdirs();
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            if (!target.isFile()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-256");
+        }
+    }
+}
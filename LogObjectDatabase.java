@@ -0,0 +1,368 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/** Keeps every namespace in the single append-only file .gitlet/objects.log.
+ *  A put, append or delete appends one record and never rewrites anything:
+ *
+ *      op (1)  namespace (1)  name length (2)  name  time (8)
+ *      contents length (4)  contents  crc32 of everything before (4)
+ *
+ *  Opening the log reads the record headers once, skipping the contents, to
+ *  build an in-memory index from name to the latest record, which for an
+ *  append links back to the records before it up to the last put.  A crash can
+ *  only leave a torn record at the end; the tail is dropped if it runs past
+ *  the end of the file or its checksum is wrong.  Every get checks the
+ *  checksum of the record it reads.
+ *
+ *  Records that were overwritten or deleted stay in the file until close
+ *  finds more dead bytes than live ones, and then copies the live records
+ *  to a new log that atomically replaces the old one.
+ *  @author Jackson Qi
+ */
+public class LogObjectDatabase implements ObjectDatabase {
+
+    /** The log's name inside .gitlet; its presence marks a log-backed repository. */
+    public static final String FILE_NAME = "objects.log";
+
+    private static final byte[] MAGIC = {'G', 'L', 'O', 'G'};
+    /** Version 2 added APPEND records; version 1 logs are read the same way. */
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte APPEND = 3;
+    /** Bytes of a record besides its name and contents. */
+    private static final int RECORD_OVERHEAD = 1 + 1 + 2 + 8 + 4 + 4;
+    /** Dead bytes below this are never worth a compaction. */
+    private static final long MIN_COMPACTION_BYTES = 1 << 20;
+
+    private final File file;
+    private FileChannel channel;
+    private int version;
+    private long end;
+    private long liveBytes;
+    private final EnumMap<Namespace, TreeMap<String, Entry>> index =
+            new EnumMap<>(Namespace.class);
+
+    /** Where the latest record for a name is. */
+    private static class Entry {
+        final long offset;
+        final int recordLength;
+        final int nameLength;
+        final int contentsLength;
+        final long time;
+        /** The record an APPEND added to, or null. */
+        Entry previous;
+        /** Record and contents lengths of this record and every one before it. */
+        long totalRecordLength;
+        long totalContentsLength;
+
+        Entry(long offset, int recordLength, int nameLength, int contentsLength, long time) {
+            this.offset = offset;
+            this.recordLength = recordLength;
+            this.nameLength = nameLength;
+            this.contentsLength = contentsLength;
+            this.time = time;
+            this.totalRecordLength = recordLength;
+            this.totalContentsLength = contentsLength;
+        }
+
+        void follow(Entry before) {
+            previous = before;
+            totalRecordLength += before.totalRecordLength;
+            totalContentsLength += before.totalContentsLength;
+        }
+    }
+
+    private LogObjectDatabase(File file) {
+        this.file = file;
+        for (Namespace namespace : Namespace.values()) {
+            index.put(namespace, new TreeMap<>());
+        }
+    }
+
+    // opens the log in GITLETDIR, creating it if there is none
+    public static LogObjectDatabase open(File gitletDir) {
+        LogObjectDatabase db = new LogObjectDatabase(new File(gitletDir, FILE_NAME));
+        try {
+            db.channel = FileChannel.open(db.file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (db.channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.put(MAGIC).put((byte) VERSION).flip();
+                db.writeFully(header, 0);
+            }
+            db.recover();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return db;
+    }
+
+    @Override
+    public byte[] get(Namespace namespace, String name) {
+        Entry latest = index.get(namespace).get(name);
+        if (latest == null) {
+            return null;
+        }
+        if (latest.totalContentsLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(name + " is too large to read in " + file);
+        }
+        byte[] contents = new byte[(int) latest.totalContentsLength];
+        int filled = contents.length;
+        for (Entry entry = latest; entry != null; entry = entry.previous) {
+            ByteBuffer record = ByteBuffer.allocate(entry.recordLength);
+            try {
+                readFully(record, entry.offset);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (!checksumMatches(record.array(), entry.recordLength)) {
+                throw new IllegalArgumentException("corrupt record for " + name + " in " + file);
+            }
+            int start = 1 + 1 + 2 + entry.nameLength + 8 + 4;
+            filled -= entry.contentsLength;
+            System.arraycopy(record.array(), start, contents, filled, entry.contentsLength);
+        }
+        return contents;
+    }
+
+    @Override
+    public void put(Namespace namespace, String name, byte[] contents) {
+        write(PUT, namespace, name, contents);
+    }
+
+    @Override
+    public void append(Namespace namespace, String name, byte[] contents) {
+        try {
+            if (version < VERSION) {
+                // a version 1 reader would take the record for a torn tail and cut it off
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.put(MAGIC).put((byte) VERSION).flip();
+                writeFully(header, 0);
+                version = VERSION;
+            }
+            write(APPEND, namespace, name, contents);
+            channel.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public boolean has(Namespace namespace, String name) {
+        return index.get(namespace).containsKey(name);
+    }
+
+    @Override
+    public void delete(Namespace namespace, String name) {
+        if (has(namespace, name)) {
+            write(DELETE, namespace, name, new byte[0]);
+        }
+    }
+
+    @Override
+    public List<String> list(Namespace namespace) {
+        return new ArrayList<>(index.get(namespace).keySet());
+    }
+
+    @Override
+    public long lastModified(Namespace namespace, String name) {
+        Entry entry = index.get(namespace).get(name);
+        return entry == null ? 0 : entry.time;
+    }
+
+    @Override
+    public long size(Namespace namespace, String name) {
+        Entry entry = index.get(namespace).get(name);
+        return entry == null ? 0 : entry.totalContentsLength;
+    }
+
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            long dead = end - HEADER_LENGTH - liveBytes;
+            if (dead > liveBytes && dead > MIN_COMPACTION_BYTES) {
+                compact();
+            } else {
+                channel.force(false);
+            }
+            channel.close();
+            channel = null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void write(byte op, Namespace namespace, String name, byte[] contents) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xffff) {
+            throw new IllegalArgumentException("name too long for the object log: " + name);
+        }
+        long time = System.currentTimeMillis();
+        int length = RECORD_OVERHEAD + nameBytes.length + contents.length;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.put(op).put((byte) namespace.ordinal()).putShort((short) nameBytes.length)
+                .put(nameBytes).putLong(time).putInt(contents.length).put(contents);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, length - 4);
+        record.putInt((int) crc.getValue()).flip();
+        try {
+            writeFully(record, end);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Entry entry = new Entry(end, length, nameBytes.length, contents.length, time);
+        end += length;
+        apply(op, namespace, name, entry);
+    }
+
+    // points NAME's index entry at ENTRY, keeping liveBytes in step
+    private void apply(byte op, Namespace namespace, String name, Entry entry) {
+        TreeMap<String, Entry> entries = index.get(namespace);
+        Entry old = op == DELETE ? entries.remove(name) : entries.put(name, entry);
+        if (old != null && op == APPEND) {
+            entry.follow(old);
+        } else if (old != null) {
+            liveBytes -= old.totalRecordLength;
+        }
+        if (op != DELETE) {
+            liveBytes += entry.recordLength;
+        }
+    }
+
+    // rebuilds the index from the record headers, cutting off a torn tail
+    private void recover() throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(header, 0);
+        version = header.get(MAGIC.length);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header.get(i) != MAGIC[i] || version < 1 || version > VERSION) {
+                throw new IllegalArgumentException(file + " is not a gitlet object log");
+            }
+        }
+
+        long pos = HEADER_LENGTH;
+        Entry last = null;
+        ByteBuffer fixed = ByteBuffer.allocate(4);
+        while (pos + RECORD_OVERHEAD <= size) {
+            fixed.clear();
+            readFully(fixed, pos);
+            byte op = fixed.get(0);
+            int ordinal = fixed.get(1);
+            int nameLength = fixed.getShort(2) & 0xffff;
+            if (op < PUT || op > APPEND || ordinal < 0
+                    || ordinal >= Namespace.values().length
+                    || pos + RECORD_OVERHEAD + nameLength > size) {
+                break;
+            }
+            ByteBuffer rest = ByteBuffer.allocate(nameLength + 12);
+            readFully(rest, pos + 4);
+            String name = new String(rest.array(), 0, nameLength, StandardCharsets.UTF_8);
+            long time = rest.getLong(nameLength);
+            int contentsLength = rest.getInt(nameLength + 8);
+            long recordLength = (long) RECORD_OVERHEAD + nameLength + contentsLength;
+            if (contentsLength < 0 || pos + recordLength > size) {
+                break;
+            }
+            last = new Entry(pos, (int) recordLength, nameLength, contentsLength, time);
+            apply(op, Namespace.values()[ordinal], name, last);
+            pos += recordLength;
+        }
+        end = pos;
+
+        // only the final record can have been half written when the checksum went out
+        if (last != null) {
+            ByteBuffer record = ByteBuffer.allocate(last.recordLength);
+            readFully(record, last.offset);
+            if (!checksumMatches(record.array(), last.recordLength)) {
+                index.clear();
+                for (Namespace namespace : Namespace.values()) {
+                    index.put(namespace, new TreeMap<>());
+                }
+                liveBytes = 0;
+                channel.truncate(last.offset);
+                recover();
+                return;
+            }
+        }
+        if (end < size) {
+            channel.truncate(end);
+        }
+    }
+
+    // writes every live record to a fresh log and swaps it in for this one
+    private void compact() throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(MAGIC).put((byte) VERSION).flip();
+            out.write(header);
+            for (Map<String, Entry> entries : index.values()) {
+                for (Entry latest : entries.values()) {
+                    Deque<Entry> chain = new ArrayDeque<>();
+                    for (Entry entry = latest; entry != null; entry = entry.previous) {
+                        chain.push(entry);
+                    }
+                    for (Entry entry : chain) {
+                        long copied = 0;
+                        while (copied < entry.recordLength) {
+                            copied += channel.transferTo(entry.offset + copied,
+                                    entry.recordLength - copied, out);
+                        }
+                    }
+                }
+            }
+            out.force(false);
+        }
+        channel.close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean checksumMatches(byte[] record, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, length - 4);
+        return ByteBuffer.wrap(record, length - 4, 4).getInt() == (int) crc.getValue();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new IOException("unexpected end of " + file);
+            }
+            pos += n;
+        }
+        buffer.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+}
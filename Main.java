@@ -1,11 +1,23 @@
 package gitlet;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static gitlet.Utils.error;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
+ *  It only parses the command line and runs the command on a Repository;
+ *  any GitletException that comes back has its message printed.
  *  @author Jackson Qi
  */
 public class Main {
 
+    /** The directory gitlet was run from. */
+    private static final File CWD = new File(System.getProperty("user.dir"));
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
@@ -14,110 +26,362 @@ public class Main {
             System.out.println("Please enter a command.");
             System.exit(0);
         }
+        try {
+            runCommand(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            System.exit(0);
+        }
+    }
+
+    public static void runCommand(String[] args) {
         String firstArg = args[0];
+        Trace.begin(firstArg);
         switch (firstArg) {
             case "init":
-                validateNumArgs(1, args);
-                Repository.initCommand();
+                HashAlgorithm algorithm = HashAlgorithm.SHA1;
+                Function<File, ObjectDatabase> storage = FileObjectDatabase::new;
+                for (int i = 1; i < args.length; i++) {
+                    if (args[i].startsWith("--hash=")) {
+                        algorithm = parseHashAlgorithm(args[i].substring("--hash=".length()));
+                    } else if (args[i].startsWith("--storage=")) {
+                        storage = parseStorage(args[i].substring("--storage=".length()));
+                    } else {
+                        throw error("Incorrect operands.");
+                    }
+                }
+                Repository.init(CWD, algorithm, storage, System.out).close();
+                break;
+            case "clone":
+                if (args.length < 3) {
+                    throw error("Incorrect operands.");
+                }
+                String branch = null;
+                int depth = 0;
+                boolean blobless = false;
+                Function<File, ObjectDatabase> cloneStorage = FileObjectDatabase::new;
+                for (int i = 3; i < args.length; i++) {
+                    if (args[i].startsWith("--depth=")) {
+                        depth = parseDepth(args[i].substring("--depth=".length()));
+                    } else if (args[i].startsWith("--branch=")) {
+                        branch = args[i].substring("--branch=".length());
+                    } else if (args[i].equals("--filter=blob:none")) {
+                        blobless = true;
+                    } else if (args[i].startsWith("--storage=")) {
+                        cloneStorage = parseStorage(args[i].substring("--storage=".length()));
+                    } else {
+                        throw error("Incorrect operands.");
+                    }
+                }
+                Repository.clone(resolve(args[1]), resolve(args[2]), branch, depth, blobless,
+                        cloneStorage, System.out).close();
                 break;
             case "add":
                 validateNumArgs(2, args);
-                Repository.exitIfnoInit();
-                Repository.addCommand(args[1]);
+                withRepository(repo -> repo.addCommand(args[1]));
                 break;
             case "commit":
                 if (args.length < 2 || args[1].isEmpty()) {
-                    System.out.println("Please enter a commit message.");
-                    System.exit(0);
-                } else {
-                    Repository.exitIfnoInit();
-                    Repository.commitCommand(args[1], null);
+                    throw error("Please enter a commit message.");
                 }
+                withRepository(repo -> repo.commitCommand(args[1], null));
                 break;
             case "rm":
                 validateNumArgs(2, args);
-                Repository.exitIfnoInit();
-                Repository.rmCommand(args[1]);
+                withRepository(repo -> repo.rmCommand(args[1]));
                 break;
             case "log":
+                if (args.length == 3 && args[1].equals("--")) {
+                    withRepository(repo -> repo.logPathCommand(args[2]));
+                    break;
+                }
                 validateNumArgs(1, args);
-                Repository.exitIfnoInit();
-                Repository.logCommand();
+                withRepository(Repository::logCommand);
                 break;
             case "global-log":
                 validateNumArgs(1, args);
-                Repository.exitIfnoInit();
-                Repository.globalLogCommand();
+                withRepository(Repository::globalLogCommand);
                 break;
             case "find":
                 validateNumArgs(2, args);
-                Repository.exitIfnoInit();
-                Repository.findCommand(args[1]);
+                withRepository(repo -> repo.findCommand(args[1]));
                 break;
             case "status":
                 validateNumArgs(1, args);
-                Repository.exitIfnoInit();
-                Repository.statusCommand();
+                withRepository(Repository::statusCommand);
                 break;
             case "checkout":
                 if (args.length == 3) {
                     isValidCheckout1(args);
-                    Repository.exitIfnoInit();
-                    Repository.checkoutCommand1(args[2]);
-                    break;
+                    withRepository(repo -> repo.checkoutCommand1(args[2]));
                 } else if (args.length == 4) {
                     isValidCheckout2(args);
-                    Repository.exitIfnoInit();
-                    Repository.checkoutCommand2(args[1], args[3]);
-                    break;
+                    withRepository(repo -> repo.checkoutCommand2(args[1], args[3]));
                 } else if (args.length == 2) {
-                    Repository.exitIfnoInit();
-                    Repository.checkoutCommand3(args[1]);
-                    break;
+                    withRepository(repo -> repo.checkoutCommand3(args[1]));
                 }
                 break;
             case "branch":
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    withRepository(repo -> repo.branchContainsCommand(args[2]));
+                    break;
+                }
                 validateNumArgs(2, args);
-                Repository.exitIfnoInit();
-                Repository.branchCommand(args[1]);
+                withRepository(repo -> repo.branchCommand(args[1]));
                 break;
             case "rm-branch":
                 validateNumArgs(2, args);
-                Repository.rmBranchCommand(args[1]);
+                withRepository(repo -> repo.rmBranchCommand(args[1]));
                 break;
             case "reset":
                 validateNumArgs(2, args);
-                Repository.resetCommand(args[1]);
+                withRepository(repo -> repo.resetCommand(args[1]));
+                break;
+            case "reflog":
+                if (args.length > 2) {
+                    throw error("Incorrect operands.");
+                }
+                String ref = args.length == 2 ? args[1] : "HEAD";
+                withRepository(repo -> repo.reflogCommand(ref));
+                break;
+            case "blame":
+                validateNumArgs(2, args);
+                withRepository(repo -> repo.blameCommand(args[1]));
+                break;
+            case "diff":
+                if (args.length == 1) {
+                    withRepository(Repository::diffCommand);
+                } else if (args.length == 2
+                        && (args[1].equals("--cached") || args[1].equals("--staged"))) {
+                    withRepository(Repository::diffCachedCommand);
+                } else if (args.length == 3) {
+                    withRepository(repo -> repo.diffCommitsCommand(args[1], args[2]));
+                } else {
+                    throw error("Incorrect operands.");
+                }
                 break;
             case "merge":
                 validateNumArgs(2, args);
-                Repository.mergeCommand(args[1]);
+                withRepository(repo -> repo.mergeCommand(args[1]));
+                break;
+            case "stash":
+                String action = args.length == 1 ? "push" : args[1];
+                String entry = args.length == 3 ? args[2] : null;
+                if (args.length > 3 || (entry != null
+                        && !action.equals("pop") && !action.equals("drop"))) {
+                    throw error("Incorrect operands.");
+                }
+                switch (action) {
+                    case "push":
+                        withRepository(Repository::stashPushCommand);
+                        break;
+                    case "pop":
+                        withRepository(repo -> repo.stashPopCommand(entry));
+                        break;
+                    case "list":
+                        withRepository(Repository::stashListCommand);
+                        break;
+                    case "drop":
+                        withRepository(repo -> repo.stashDropCommand(entry));
+                        break;
+                    default:
+                        throw error("Incorrect operands.");
+                }
+                break;
+            case "cherry-pick":
+                validateNumArgs(2, args);
+                withRepository(repo -> repo.cherryPickCommand(args[1]));
+                break;
+            case "rebase":
+                validateNumArgs(2, args);
+                withRepository(repo -> repo.rebaseCommand(args[1]));
+                break;
+            case "sparse-checkout":
+                if (args.length >= 3 && args[1].equals("set")) {
+                    List<String> patterns = Arrays.asList(args).subList(2, args.length);
+                    withRepository(repo -> repo.sparseCheckoutSetCommand(patterns));
+                } else if (args.length == 2 && args[1].equals("list")) {
+                    withRepository(Repository::sparseCheckoutListCommand);
+                } else if (args.length == 2 && args[1].equals("disable")) {
+                    withRepository(Repository::sparseCheckoutDisableCommand);
+                } else {
+                    throw error("Incorrect operands.");
+                }
+                break;
+            case "large-files":
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
+                }
+                long threshold = LargeFileStore.DEFAULT_THRESHOLD;
+                long cacheLimit = LargeFileStore.DEFAULT_CACHE_LIMIT;
+                for (int i = 2; i < args.length; i++) {
+                    if (args[i].startsWith("--threshold=")) {
+                        threshold = parseSize(args[i].substring("--threshold=".length()));
+                    } else if (args[i].startsWith("--cache=")) {
+                        cacheLimit = parseSize(args[i].substring("--cache=".length()));
+                    } else {
+                        throw error("Incorrect operands.");
+                    }
+                }
+                long largeThreshold = threshold;
+                long largeCacheLimit = cacheLimit;
+                withRepository(repo -> repo.largeFilesCommand(resolve(args[1]), largeThreshold,
+                        largeCacheLimit));
+                break;
+            case "monitor":
+                validateNumArgs(1, args);
+                if (!new File(CWD, ".gitlet").isDirectory()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                WorkTreeMonitor.run(CWD, System.out);
+                break;
+            case "add-remote":
+                validateNumArgs(3, args);
+                withRepository(repo -> repo.addRemoteCommand(args[1], args[2]));
+                break;
+            case "rm-remote":
+                validateNumArgs(2, args);
+                withRepository(repo -> repo.rmRemoteCommand(args[1]));
+                break;
+            case "fetch":
+                validateNumArgs(3, args);
+                withRepository(repo -> {
+                    showProgress(repo);
+                    repo.fetchCommand(args[1], args[2]);
+                });
+                break;
+            case "push":
+                validateNumArgs(3, args);
+                withRepository(repo -> {
+                    showProgress(repo);
+                    repo.pushCommand(args[1], args[2]);
+                });
+                break;
+            case "pull":
+                validateNumArgs(3, args);
+                withRepository(repo -> {
+                    showProgress(repo);
+                    repo.pullCommand(args[1], args[2]);
+                });
+                break;
+            case "gc":
+                long grace = Repository.DEFAULT_GC_GRACE_MILLIS;
+                if (args.length == 2 && args[1].startsWith("--prune=")) {
+                    grace = parseGracePeriod(args[1].substring("--prune=".length()));
+                } else {
+                    validateNumArgs(1, args);
+                }
+                long graceMillis = grace;
+                withRepository(repo -> repo.gcCommand(graceMillis));
                 break;
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
+        }
+    }
+
+    // runs COMMAND on the repository in the current directory, holding its lock throughout
+    private static void withRepository(Consumer<Repository> command) {
+        try (Repository repo = Repository.open(CWD)) {
+            command.accept(repo);
+        }
+    }
+
+    // progress goes to stderr, and only when someone is watching it, as with git
+    private static void showProgress(Repository repo) {
+        if (System.console() != null) {
+            repo.showProgress(System.err);
         }
-        return;
     }
 
     public static void validateNumArgs(int expected, String[] args) {
         if (expected != args.length) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
+        }
+    }
+
+    // --prune=now or --prune=<seconds>
+    public static long parseGracePeriod(String value) {
+        if (value.equals("now")) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value) * 1000;
+        } catch (NumberFormatException excp) {
+            throw error("Incorrect operands.");
+        }
+    }
+
+    // --depth=<n>, at least one commit per branch
+    public static int parseDepth(String value) {
+        int depth;
+        try {
+            depth = Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            throw error("Incorrect operands.");
+        }
+        if (depth < 1) {
+            throw error("Incorrect operands.");
+        }
+        return depth;
+    }
+
+    // a number of bytes, with an optional k, m or g for KiB, MiB or GiB
+    public static long parseSize(String value) {
+        String digits = value.toLowerCase();
+        int shift = 0;
+        if (digits.endsWith("k") || digits.endsWith("m") || digits.endsWith("g")) {
+            shift = "kmg".indexOf(digits.charAt(digits.length() - 1)) * 10 + 10;
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        long size;
+        try {
+            size = Long.parseLong(digits);
+        } catch (NumberFormatException excp) {
+            throw error("Incorrect operands.");
+        }
+        if (size < 1 || size > Long.MAX_VALUE >> shift) {
+            throw error("Incorrect operands.");
+        }
+        return size << shift;
+    }
+
+    // PATH as given on the command line, relative to the directory gitlet was run from
+    private static File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(CWD, path);
+    }
+
+    // --hash=sha1 or --hash=sha256; fast non-cryptographic hashes cannot name objects
+    public static HashAlgorithm parseHashAlgorithm(String name) {
+        HashAlgorithm algorithm = HashAlgorithm.forName(name);
+        if (algorithm == null || !algorithm.isObjectHash()) {
+            throw error("Unsupported object hash: %s", name);
+        }
+        return algorithm;
+    }
+
+    // --storage=file (one file per object under .gitlet) or --storage=log (one append-only
+    // file); an in-memory repository would be gone as soon as init returned
+    public static Function<File, ObjectDatabase> parseStorage(String name) {
+        switch (name) {
+            case "file":
+                return FileObjectDatabase::new;
+            case "log":
+                return LogObjectDatabase::open;
+            default:
+                throw error("Unsupported storage: %s", name);
         }
     }
 
     public static void isValidCheckout1(String[] args) {
         if (!args[1].equals("--")) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 
     public static void isValidCheckout2(String[] args) {
         if (!args[2].equals("--")) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 }
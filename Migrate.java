@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+
+import gitlet.ObjectDatabase.Namespace;
+
+import static gitlet.Utils.*;
+
+/** Rewrites a .gitlet directory created with Java serialization into the
+ *  ObjectCodec format.  Invoke it from the repository's working directory:
+ *      java gitlet.Migrate
+ *
+ *  A commit's id is the sha1 of its encoded bytes, so every commit gets a new
+ *  id.  Commits are rewritten parents first so each one can point at its
+ *  parents' new ids, then branches and HEAD are repointed.  The derived
+ *  filters, commit graph and bitmaps are rebuilt.  Running it again on a
+ *  migrated repository changes nothing.
+ *  @author Jackson Qi
+ */
+public class Migrate {
+
+    public static void main(String... args) {
+        File cwd = new File(System.getProperty("user.dir"));
+        File gitletDir = join(cwd, ".gitlet");
+        if (!gitletDir.exists()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        // only file-backed repositories predate ObjectCodec, and the repository's objects
+        // are rewritten underneath it, so it is never loaded
+        Repository repo = new Repository(cwd, new FileObjectDatabase(gitletDir), System.out);
+        ObjectDatabase db = repo.database();
+        RepositoryLock lock = RepositoryLock.acquire(gitletDir);
+        try {
+            HashMap<String, String> newIDs = migrateCommits(db);
+            migrateRefs(db, newIDs);
+            migrateBlobs(db);
+            rewrite(db, Namespace.STAGING, "stagingAreaAdd", HashMap.class);
+            rewrite(db, Namespace.STAGING, "stagingAreaRemove", HashMap.class);
+            rebuildDerivedData(repo, newIDs);
+            System.out.println("Migrated " + newIDs.size() + " commits.");
+        } finally {
+            lock.close();
+        }
+    }
+
+    // rewrites every commit, returning old id -> new id
+    private static HashMap<String, String> migrateCommits(ObjectDatabase db) {
+        HashMap<String, Commit> oldCommits = new HashMap<>();
+        for (String id : db.list(Namespace.COMMITS)) {
+            oldCommits.put(id, read(db, Namespace.COMMITS, id, Commit.class));
+        }
+
+        HashMap<String, String> newIDs = new HashMap<>();
+        for (String id : oldCommits.keySet()) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String top = stack.peek();
+                Commit old = oldCommits.get(top);
+                if (newIDs.containsKey(top)) {
+                    stack.pop();
+                } else if (old.getParent() != null && !newIDs.containsKey(old.getParent())) {
+                    stack.push(old.getParent());
+                } else if (old.getParent2() != null && !newIDs.containsKey(old.getParent2())) {
+                    stack.push(old.getParent2());
+                } else {
+                    stack.pop();
+                    Commit migrated = new Commit(old.getDate(), old.getMessage(),
+                            newIDs.get(old.getParent()), newIDs.get(old.getParent2()),
+                            old.getFilesList());
+                    byte[] bytes = serialize(migrated);
+                    String newID = hash(bytes);
+                    db.put(Namespace.COMMITS, newID, bytes);
+                    if (!newID.equals(top)) {
+                        db.delete(Namespace.COMMITS, top);
+                    }
+                    newIDs.put(top, newID);
+                }
+            }
+        }
+        return newIDs;
+    }
+
+    private static void migrateRefs(ObjectDatabase db, HashMap<String, String> newIDs) {
+        if (!db.has(Namespace.ROOT, Repository.BRANCHES_NAME)) {
+            // already converted to refs.log, which only ever held current ids
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        HashMap<String, String> branchTable =
+                read(db, Namespace.ROOT, Repository.BRANCHES_NAME, HashMap.class);
+        for (String branchName : branchTable.keySet()) {
+            branchTable.put(branchName, newIDs.get(branchTable.get(branchName)));
+        }
+        db.put(Namespace.ROOT, Repository.BRANCHES_NAME, serialize(branchTable));
+
+        Head head = read(db, Namespace.ROOT, Repository.HEAD_NAME, Head.class);
+        head.HEAD = newIDs.get(head.HEAD);
+        db.put(Namespace.ROOT, Repository.HEAD_NAME, serialize(head));
+    }
+
+    // old blob tables are keyed by hex strings, the current ones by ObjectId
+    private static void migrateBlobs(ObjectDatabase db) {
+        @SuppressWarnings("unchecked")
+        HashMap<Object, Blob> old = read(db, Namespace.BLOBS, "blobStorage", HashMap.class);
+        HashMap<ObjectId, Blob> blobStorage = new HashMap<>();
+        for (Object key : old.keySet()) {
+            ObjectId id = key instanceof ObjectId
+                    ? (ObjectId) key : ObjectId.fromString((String) key);
+            blobStorage.put(id, old.get(key));
+        }
+        db.put(Namespace.BLOBS, "blobStorage", serialize(blobStorage));
+    }
+
+    // the filters hold parent ids and the graph and bitmaps hold commit ids, so all three
+    // are thrown away and built again for the new ids; blames hold commit ids too, but
+    // are only worked out again when asked for
+    private static void rebuildDerivedData(Repository repo, HashMap<String, String> newIDs) {
+        ObjectDatabase db = repo.database();
+        deleteAll(db, Namespace.FILTERS);
+        deleteAll(db, Namespace.BITMAPS);
+        deleteAll(db, Namespace.BLAME);
+        db.delete(Namespace.ROOT, Repository.GRAPH_NAME);
+        for (String newID : newIDs.values()) {
+            Commit commit = read(db, Namespace.COMMITS, newID, Commit.class);
+            HashMap<String, String> parentFiles = commit.getParent() == null
+                    ? new HashMap<>()
+                    : read(db, Namespace.COMMITS, commit.getParent(), Commit.class)
+                            .getFilesList();
+            repo.writeFilter(newID, ChangedPathFilter.of(commit.getFilesList(), parentFiles,
+                    commit.getParent(), commit.getParent2()));
+        }
+        repo.loadGraph();
+    }
+
+    private static <T extends Serializable> T read(ObjectDatabase db, Namespace namespace,
+                                                   String name, Class<T> type) {
+        return deserialize(db.get(namespace, name), type);
+    }
+
+    private static <T extends Serializable> void rewrite(ObjectDatabase db, Namespace namespace,
+                                                         String name, Class<T> type) {
+        db.put(namespace, name, serialize(read(db, namespace, name, type)));
+    }
+
+    private static void deleteAll(ObjectDatabase db, Namespace namespace) {
+        for (String name : db.list(namespace)) {
+            db.delete(namespace, name);
+        }
+    }
+}
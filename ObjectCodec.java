@@ -0,0 +1,292 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/** The on-disk format of every object under .gitlet.
+ *
+ *  Each file starts with the magic bytes "GLT", a format version byte and a
+ *  one-byte type tag, followed by the object's fields in a fixed order.
+ *  Strings are a 4-byte length (-1 for null) followed by UTF-8 bytes, and
+ *  maps are a 4-byte entry count followed by their entries sorted by key
+ *  hash and then key, so
+ *  equal objects always encode to identical bytes and hash to the same id.
+ *
+ *  Files written by the old ObjectOutputStream format start with 0xACED and
+ *  are still readable through Utils.readObject until Migrate rewrites them.
+ *  @author Jackson Qi
+ */
+class ObjectCodec {
+
+    static final byte[] MAGIC = {'G', 'L', 'T'};
+    static final byte VERSION = 1;
+
+    static final byte COMMIT = 1;
+    static final byte BLOB = 2;
+    static final byte HEAD = 3;
+    static final byte STRING_MAP = 4;
+    static final byte BLOB_MAP = 5;
+    static final byte PATH_FILTER = 6;
+    static final byte COMMIT_GRAPH = 7;
+    static final byte BITMAP = 8;
+    static final byte BLAME = 9;
+
+    private static final Comparator<String> KEY_ORDER =
+            Comparator.comparingInt(String::hashCode).thenComparing(Comparator.naturalOrder());
+
+    /** Returns the encoded bytes of OBJ, which must be one of the types above. */
+    static byte[] encode(Serializable obj) {
+        try {
+            ByteSink bytes = new ByteSink();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            if (obj instanceof Commit) {
+                out.writeByte(COMMIT);
+                ((Commit) obj).writeTo(out);
+            } else if (obj instanceof Blob) {
+                out.writeByte(BLOB);
+                ((Blob) obj).writeTo(out);
+            } else if (obj instanceof Head) {
+                out.writeByte(HEAD);
+                ((Head) obj).writeTo(out);
+            } else if (obj instanceof Map && isBlobMap((Map<?, ?>) obj)) {
+                out.writeByte(BLOB_MAP);
+                @SuppressWarnings("unchecked")
+                Map<ObjectId, Blob> blobs = (Map<ObjectId, Blob>) obj;
+                writeBlobMap(out, blobs);
+            } else if (obj instanceof Map) {
+                out.writeByte(STRING_MAP);
+                @SuppressWarnings("unchecked")
+                Map<String, String> strings = (Map<String, String>) obj;
+                writeStringMap(out, strings);
+            } else if (obj instanceof ChangedPathFilter) {
+                out.writeByte(PATH_FILTER);
+                ((ChangedPathFilter) obj).writeTo(out);
+            } else if (obj instanceof CommitGraph) {
+                out.writeByte(COMMIT_GRAPH);
+                ((CommitGraph) obj).writeTo(out);
+            } else if (obj instanceof ReachabilityBitmap) {
+                out.writeByte(BITMAP);
+                ((ReachabilityBitmap) obj).writeTo(out);
+            } else if (obj instanceof Blame) {
+                out.writeByte(BLAME);
+                ((Blame) obj).writeTo(out);
+            } else {
+                throw Utils.error("Cannot encode %s.", obj.getClass().getName());
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding object.");
+        }
+    }
+
+    /** Returns the object encoded in BYTES, cast to EXPECTEDCLASS.
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T decode(byte[] bytes, Class<T> expectedClass) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteSource(bytes));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (magic[0] != MAGIC[0] || magic[1] != MAGIC[1] || magic[2] != MAGIC[2]) {
+                throw new IllegalArgumentException("not a gitlet object");
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unknown object version " + version);
+            }
+            Object result;
+            byte type = in.readByte();
+            switch (type) {
+                case COMMIT:
+                    result = Commit.readFrom(in);
+                    break;
+                case BLOB:
+                    result = Blob.readFrom(in);
+                    break;
+                case HEAD:
+                    result = Head.readFrom(in);
+                    break;
+                case STRING_MAP:
+                    result = readStringMap(in);
+                    break;
+                case BLOB_MAP:
+                    result = readBlobMap(in);
+                    break;
+                case PATH_FILTER:
+                    result = ChangedPathFilter.readFrom(in);
+                    break;
+                case COMMIT_GRAPH:
+                    result = CommitGraph.readFrom(in);
+                    break;
+                case BITMAP:
+                    result = ReachabilityBitmap.readFrom(in);
+                    break;
+                case BLAME:
+                    result = Blame.readFrom(in);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown object type " + type);
+            }
+            return expectedClass.cast(result);
+        } catch (IOException | ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** True if BYTES were written by ObjectOutputStream rather than this codec. */
+    static boolean isLegacy(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+
+    /* FIELD HELPERS */
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    static void writeStringMap(DataOutputStream out, Map<String, String> map)
+            throws IOException {
+        if (map == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(map.size());
+        for (String key : sortedKeys(map)) {
+            writeString(out, key);
+            writeString(out, map.get(key));
+        }
+    }
+
+    static HashMap<String, String> readStringMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        HashMap<String, String> map = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            map.put(key, readString(in));
+        }
+        return map;
+    }
+
+    // keys are still written as hex strings so blob tables from before ObjectId keep reading
+    private static void writeBlobMap(DataOutputStream out, Map<ObjectId, Blob> map)
+            throws IOException {
+        out.writeInt(map.size());
+        ObjectId[] keys = map.keySet().toArray(new ObjectId[0]);
+        Arrays.sort(keys);
+        for (ObjectId key : keys) {
+            writeString(out, key.toString());
+            map.get(key).writeTo(out);
+        }
+    }
+
+    private static HashMap<ObjectId, Blob> readBlobMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        HashMap<ObjectId, Blob> map = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            ObjectId key = ObjectId.fromString(readString(in));
+            map.put(key, Blob.readFrom(in));
+        }
+        return map;
+    }
+
+    // String.hashCode is fixed by the language spec, so ordering by it first is just as
+    // deterministic as plain string order and avoids most character-by-character compares
+    private static String[] sortedKeys(Map<String, ?> map) {
+        String[] keys = map.keySet().toArray(new String[0]);
+        Arrays.sort(keys, KEY_ORDER);
+        return keys;
+    }
+
+    // an empty map is written as a string map; both decode to an empty HashMap
+    private static boolean isBlobMap(Map<?, ?> map) {
+        for (Object value : map.values()) {
+            return value instanceof Blob;
+        }
+        return false;
+    }
+
+    /** An unsynchronized ByteArrayOutputStream. */
+    private static class ByteSink extends OutputStream {
+        private byte[] buf = new byte[256];
+        private int count;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(needed, buf.length * 2));
+            }
+        }
+    }
+
+    /** An unsynchronized ByteArrayInputStream. */
+    private static class ByteSource extends InputStream {
+        private final byte[] buf;
+        private int pos;
+
+        ByteSource(byte[] buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return pos < buf.length ? buf[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= buf.length) {
+                return -1;
+            }
+            int n = Math.min(len, buf.length - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package gitlet;
+
+import java.util.List;
+
+/** Where a repository keeps everything except its working files: a set of
+ *  namespaces, each mapping names to byte strings.  Repository only ever
+ *  goes through this interface, so the same commands run unchanged against
+ *  FileObjectDatabase (the classic .gitlet layout), MemoryObjectDatabase
+ *  (nothing touches the disk, for tests and benchmarks) or LogObjectDatabase
+ *  (one append-only file).
+ *
+ *  Implementations need not be thread safe, except that get may be called
+ *  from several threads at once while nothing is being written.
+ *  @author Jackson Qi
+ */
+public interface ObjectDatabase extends AutoCloseable {
+
+    /** The kinds of entry a repository stores.  DIRECTORY is where
+     *  FileObjectDatabase keeps each one, relative to .gitlet. */
+    enum Namespace {
+        /** Repository-wide records: refs.log, hash and commit-graph. */
+        ROOT(""),
+        COMMITS("commits_dir"),
+        BLOBS("blobs_dir"),
+        STAGING("stagingArea"),
+        FILTERS("filters_dir"),
+        BITMAPS("bitmaps_dir"),
+        /** Blame of a file version, by blob id and the commit that introduced it. */
+        BLAME("blame_dir"),
+        /** Pieces of large files, by the hash of their bytes; see Chunker. */
+        CHUNKS("chunks_dir");
+
+        private final String directory;
+
+        Namespace(String directory) {
+            this.directory = directory;
+        }
+
+        public String directory() {
+            return directory;
+        }
+    }
+
+    // the contents stored under NAME, or null if there are none
+    byte[] get(Namespace namespace, String name);
+
+    // stores CONTENTS under NAME, replacing whatever was there; after a crash NAME holds
+    // either the old contents or the new ones, never a mix
+    void put(Namespace namespace, String name, byte[] contents);
+
+    // adds CONTENTS to the end of NAME, creating it if need be, and makes them durable
+    // before returning; this is how an append-only log such as RefLog grows
+    void append(Namespace namespace, String name, byte[] contents);
+
+    boolean has(Namespace namespace, String name);
+
+    // removes NAME if it exists
+    void delete(Namespace namespace, String name);
+
+    // every name in NAMESPACE, in lexicographic order
+    List<String> list(Namespace namespace);
+
+    // when NAME was last put, in milliseconds since the epoch; 0 if it does not exist
+    long lastModified(Namespace namespace, String name);
+
+    // the length of NAME's contents in bytes; 0 if it does not exist
+    long size(Namespace namespace, String name);
+
+    // makes every put so far durable and releases the backend's resources
+    @Override
+    void close();
+}
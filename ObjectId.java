@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.io.Serializable;
+
+/** An object id held as its raw bytes in primitive fields, so using ids as
+ *  map keys costs no String, char array or hex parsing, and equals/hashCode
+ *  are a few word compares.  Ids of up to 32 bytes fit, which covers every
+ *  HashAlgorithm; shorter ids leave the trailing words zero.
+ *  @author Jackson Qi
+ */
+public final class ObjectId implements Comparable<ObjectId>, Serializable {
+
+    /** Pinned, so ids ObjectOutputStream wrote stay readable until the fields change. */
+    private static final long serialVersionUID = 6641169818353314094L;
+
+    /** Longest raw id that fits, in bytes. */
+    public static final int MAX_RAW_LENGTH = 32;
+
+    private final long w0;
+    private final long w1;
+    private final long w2;
+    private final long w3;
+    private final byte length;
+
+    private ObjectId(long w0, long w1, long w2, long w3, int length) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.length = (byte) length;
+    }
+
+    // the id whose raw bytes are BYTES[OFFSET .. OFFSET + LENGTH)
+    public static ObjectId fromRaw(byte[] bytes, int offset, int length) {
+        checkLength(length);
+        long[] w = new long[4];
+        for (int i = 0; i < length; i++) {
+            w[i / 8] |= (bytes[offset + i] & 0xffL) << (56 - 8 * (i % 8));
+        }
+        return new ObjectId(w[0], w[1], w[2], w[3], length);
+    }
+
+    // parses a full hex id of any supported length
+    public static ObjectId fromString(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("not a full object id: " + hex);
+        }
+        int length = hex.length() / 2;
+        checkLength(length);
+        long[] w = new long[4];
+        for (int i = 0; i < hex.length(); i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("not a hex id: " + hex);
+            }
+            w[i / 16] |= (long) digit << (60 - 4 * (i % 16));
+        }
+        return new ObjectId(w[0], w[1], w[2], w[3], length);
+    }
+
+    public int rawLength() {
+        return length;
+    }
+
+    public void copyRawTo(byte[] dest, int offset) {
+        long[] w = {w0, w1, w2, w3};
+        for (int i = 0; i < length; i++) {
+            dest[offset + i] = (byte) (w[i / 8] >>> (56 - 8 * (i % 8)));
+        }
+    }
+
+    public boolean startsWith(String hexPrefix) {
+        return toString().startsWith(hexPrefix);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) o;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3
+                && length == other.length;
+    }
+
+    // the bytes of a hash are already uniformly distributed
+    @Override
+    public int hashCode() {
+        return (int) (w0 >>> 32);
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        int c = Long.compareUnsigned(w0, other.w0);
+        if (c == 0) {
+            c = Long.compareUnsigned(w1, other.w1);
+        }
+        if (c == 0) {
+            c = Long.compareUnsigned(w2, other.w2);
+        }
+        if (c == 0) {
+            c = Long.compareUnsigned(w3, other.w3);
+        }
+        if (c == 0) {
+            c = Integer.compare(length, other.length);
+        }
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        byte[] raw = new byte[length];
+        copyRawTo(raw, 0);
+        return Utils.toHex(raw);
+    }
+
+    private static void checkLength(int length) {
+        if (length <= 0 || length > MAX_RAW_LENGTH) {
+            throw new IllegalArgumentException("bad object id length " + length);
+        }
+    }
+}
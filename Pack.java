@@ -0,0 +1,352 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import gitlet.ObjectDatabase.Namespace;
+
+import static gitlet.Utils.deserialize;
+import static gitlet.Utils.error;
+import static gitlet.Utils.hash;
+import static gitlet.Utils.serialize;
+
+/** Moves commits and blobs from one repository to another, the way fetch
+ *  and push do, sending only what the receiving side lacks.
+ *
+ *  The two sides first negotiate which commits they share.  The receiver
+ *  offers the commits it has, newest first, in batches that double in size,
+ *  and the sender acknowledges those it has as well.  The ancestors of an
+ *  acknowledged commit are common too and never offered.  The receiver
+ *  gives up after MAX_IN_VAIN offers in a row go unacknowledged, as git does.
+ *
+ *  The sender then streams one pack into a temporary file in the receiver's
+ *  .gitlet directory: every commit reachable from the wanted commits but not
+ *  from a common one, parents first, with its changed-path filter, preceded
+ *  by the blobs those commits use that the common commits do not, and before
+ *  those by the chunks of large blobs the common commits lack as well.
+ *
+ *      "GPAK"  version (1)  object count (4)
+ *      { kind (1)  id  length (4)  bytes }*  crc32 of everything before (4)
+ *
+ *  The receiver checks every commit against its id while reading, but only
+ *  updates its blobs and commit graph once the checksum has matched.
+ *  @author Jackson Qi
+ */
+class Pack {
+
+    private static final byte[] MAGIC = {'G', 'P', 'A', 'K'};
+    private static final int VERSION = 1;
+    private static final byte BLOB = 1;
+    private static final byte COMMIT = 2;
+    private static final byte FILTER = 3;
+    private static final byte CHUNK = 4;
+    private static final int FIRST_BATCH = 16;
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_IN_VAIN = 256;
+
+    private Pack() {
+    }
+
+    /** Prints "TITLE: P% (N/TOTAL)" over itself on a terminal as work is done, and
+     *  nothing at all without one. */
+    static class Progress {
+        private final PrintStream err;
+        private final String title;
+        private final long total;
+        private long done;
+        private long lastPercent = -1;
+
+        Progress(PrintStream err, String title, long total) {
+            this.err = err;
+            this.title = title;
+            this.total = total;
+        }
+
+        void tick() {
+            done++;
+            long percent = total == 0 ? 100 : done * 100 / total;
+            if (err != null && percent != lastPercent) {
+                lastPercent = percent;
+                err.print("\r" + title + ": " + percent + "% (" + done + "/" + total + ")");
+            }
+        }
+
+        void finish() {
+            if (err != null) {
+                err.println("\r" + title + ": 100% (" + total + "/" + total + "), done.");
+            }
+        }
+    }
+
+    // copies what RECEIVER lacks of the history of WANTS from SENDER, printing progress
+    // under TITLE to PROGRESS unless it is null; returns the number of objects sent
+    static int transfer(Repository sender, Repository receiver, Collection<String> wants,
+                        String title, PrintStream progress) {
+        List<String> missing = new ArrayList<>();
+        for (String want : wants) {
+            if (!receiver.loadGraph().contains(want)) {
+                missing.add(want);
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+        Set<String> common = negotiate(sender, receiver);
+
+        File pack;
+        try {
+            pack = File.createTempFile("pack-", ".tmp", receiver.gitletDir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            int count = write(sender, missing, common, pack, title, progress);
+            read(receiver, pack);
+            return count;
+        } finally {
+            pack.delete();
+        }
+    }
+
+    // the commits of RECEIVER that SENDER has too, though not necessarily all of them
+    static Set<String> negotiate(Repository sender, Repository receiver) {
+        CommitGraph ours = receiver.loadGraph();
+        CommitGraph theirs = sender.loadGraph();
+        Set<String> common = new HashSet<>();
+        BitSet offered = new BitSet(ours.size());
+        BitSet known = new BitSet(ours.size());
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Collections.reverseOrder());
+        for (String tip : receiver.branches().values()) {
+            int pos = ours.position(tip);
+            if (!offered.get(pos)) {
+                offered.set(pos);
+                queue.add(pos);
+            }
+        }
+
+        int batch = FIRST_BATCH;
+        int inVain = 0;
+        while (!queue.isEmpty() && inVain < MAX_IN_VAIN) {
+            List<Integer> haves = new ArrayList<>();
+            while (haves.size() < batch && !queue.isEmpty()) {
+                int pos = queue.poll();
+                if (!known.get(pos)) {
+                    haves.add(pos);
+                }
+            }
+            // the sender's side of the exchange: acknowledge what it has
+            List<Integer> acks = new ArrayList<>();
+            for (int pos : haves) {
+                if (theirs.contains(ours.idAt(pos))) {
+                    acks.add(pos);
+                }
+            }
+
+            for (int pos : acks) {
+                common.add(ours.idAt(pos));
+                known.or(receiver.bitmapFor(ours, ours.idAt(pos)).toBitSet());
+            }
+            for (int pos : haves) {
+                if (known.get(pos)) {
+                    continue;
+                }
+                for (int parent : ours.parentsOf(pos)) {
+                    if (!offered.get(parent)) {
+                        offered.set(parent);
+                        queue.add(parent);
+                    }
+                }
+            }
+            inVain = acks.isEmpty() ? inVain + haves.size() : 0;
+            batch = Math.min(batch * 2, MAX_BATCH);
+        }
+        return common;
+    }
+
+    // writes to PACK everything in the history of WANTS that is not in the history of
+    // COMMON, returning the number of objects written
+    private static int write(Repository sender, Collection<String> wants, Set<String> common,
+                             File pack, String title, PrintStream err) {
+        CommitGraph graph = sender.loadGraph();
+        BitSet send = new BitSet(graph.size());
+        for (String want : wants) {
+            send.or(sender.bitmapFor(graph, want).toBitSet());
+        }
+        Set<String> haveBlobs = new HashSet<>();
+        for (String id : common) {
+            send.andNot(sender.bitmapFor(graph, id).toBitSet());
+            haveBlobs.addAll(sender.grabCommit(id).getFilesList().values());
+        }
+        Set<String> haveChunks = new HashSet<>();
+        for (String id : haveBlobs) {
+            Blob blob = sender.storedBlob(id);
+            if (blob != null && blob.chunks != null) {
+                haveChunks.addAll(Arrays.asList(blob.chunks));
+            }
+        }
+        List<String> commitIDs = new ArrayList<>();
+        Set<String> blobIDs = new LinkedHashSet<>();
+        for (int pos = send.nextSetBit(0); pos >= 0; pos = send.nextSetBit(pos + 1)) {
+            String id = graph.idAt(pos);
+            commitIDs.add(id);
+            for (String blobID : sender.grabCommit(id).getFilesList().values()) {
+                if (!haveBlobs.contains(blobID)) {
+                    blobIDs.add(blobID);
+                }
+            }
+        }
+
+        HashMap<String, Blob> blobs = new LinkedHashMap<>();
+        Set<String> chunkIDs = new LinkedHashSet<>();
+        for (String id : blobIDs) {
+            Blob blob = sender.grabBlob(id);
+            if (blob == null) {
+                throw error("Missing file contents for %s.", id);
+            }
+            blobs.put(id, blob);
+            if (blob.chunks != null) {
+                for (String chunk : blob.chunks) {
+                    if (!haveChunks.contains(chunk)) {
+                        chunkIDs.add(chunk);
+                    }
+                }
+            }
+        }
+
+        ObjectDatabase db = sender.database();
+        int count = chunkIDs.size() + blobs.size() + commitIDs.size();
+        Progress progress = new Progress(err, title, count);
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(pack)), crc))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(count);
+            for (String id : chunkIDs) {
+                byte[] chunk = db.get(Namespace.CHUNKS, id);
+                if (chunk == null) {
+                    throw error("Missing file contents for %s.", id);
+                }
+                writeEntry(out, CHUNK, id, chunk);
+                progress.tick();
+            }
+            for (String id : blobs.keySet()) {
+                writeEntry(out, BLOB, id, serialize(blobs.get(id)));
+                progress.tick();
+            }
+            for (String id : commitIDs) {
+                byte[] filter = db.get(Namespace.FILTERS, id);
+                if (filter != null) {
+                    writeEntry(out, FILTER, id, filter);
+                }
+                writeEntry(out, COMMIT, id, db.get(Namespace.COMMITS, id));
+                progress.tick();
+            }
+            out.flush();
+            out.writeInt((int) crc.getValue());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        progress.finish();
+        return count;
+    }
+
+    private static void writeEntry(DataOutputStream out, byte kind, String id, byte[] bytes)
+            throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(id);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // PARENT if GRAPH has it, else FALLBACK if it has that; a shallow receiver may lack either
+    private static String presentParent(CommitGraph graph, String parent, String fallback) {
+        if (parent != null && graph.contains(parent)) {
+            return parent;
+        }
+        return fallback != null && graph.contains(fallback) ? fallback : null;
+    }
+
+    // stores every object in PACK in RECEIVER, then has it reload what it holds in memory
+    private static void read(Repository receiver, File pack) {
+        try {
+            readObjects(receiver, pack);
+        } finally {
+            // the graph and blobs it had loaded are stale either way
+            receiver.reload();
+        }
+    }
+
+    private static void readObjects(Repository receiver, File pack) {
+        ObjectDatabase db = receiver.database();
+        @SuppressWarnings("unchecked")
+        HashMap<ObjectId, Blob> blobs = deserialize(db.get(Namespace.BLOBS, "blobStorage"),
+                HashMap.class);
+        CommitGraph graph = receiver.loadGraph();
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(pack)), crc))) {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC) || in.readByte() != VERSION) {
+                throw error("Received a corrupt pack.");
+            }
+            int count = in.readInt();
+            int seen = 0;
+            while (seen < count) {
+                byte kind = in.readByte();
+                String id = in.readUTF();
+                byte[] bytes = in.readNBytes(in.readInt());
+                if (kind == CHUNK && hash(bytes).equals(id)) {
+                    if (db.size(Namespace.CHUNKS, id) == 0) {
+                        db.put(Namespace.CHUNKS, id, bytes);
+                    }
+                    seen++;
+                } else if (kind == BLOB) {
+                    blobs.put(ObjectId.fromString(id), deserialize(bytes, Blob.class));
+                    seen++;
+                } else if (kind == FILTER) {
+                    db.put(Namespace.FILTERS, id, bytes);
+                } else if (kind == COMMIT && hash(bytes).equals(id)) {
+                    // content addressed, so harmless even if the pack turns out bad
+                    db.put(Namespace.COMMITS, id, bytes);
+                    Commit commit = deserialize(bytes, Commit.class);
+                    graph.add(id, presentParent(graph, commit.getParent(), commit.getParent2()),
+                            presentParent(graph, commit.getParent2(), null));
+                    seen++;
+                } else {
+                    throw error("Received a corrupt pack.");
+                }
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw error("Received a corrupt pack.");
+            }
+        } catch (IOException excp) {
+            throw error("Received a corrupt pack.");
+        }
+        db.put(Namespace.BLOBS, "blobStorage", serialize(blobs));
+        graph.save(db, Repository.GRAPH_NAME);
+    }
+}
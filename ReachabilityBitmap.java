@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/** A compressed bitmap over commit-graph positions, EWAH style: runs of
+ *  all-zero or all-one 64-bit words collapse into a single marker word, and
+ *  the words that are neither follow their marker verbatim.
+ *
+ *  Marker word layout: bit 0 is the fill bit, bits 1-32 hold the number of
+ *  fill words, bits 33-63 hold the number of literal words that follow.
+ *  @author Jackson Qi
+ */
+public class ReachabilityBitmap implements Serializable {
+
+    /** Pinned so files written before ObjectCodec still deserialize. */
+    private static final long serialVersionUID = -7211801967377123197L;
+
+    private static final long RUN_MASK = 0xFFFFFFFFL;
+    private static final long MAX_RUN = RUN_MASK;
+    private static final int MAX_LITERALS = Integer.MAX_VALUE;
+
+    private final long[] words;
+    /** The number of bits set, which the stored format records. */
+    private final int cardinality;
+
+    private ReachabilityBitmap(long[] words, int cardinality) {
+        this.words = words;
+        this.cardinality = cardinality;
+    }
+
+    public static ReachabilityBitmap of(BitSet bits) {
+        long[] raw = bits.toLongArray();
+        List<Long> out = new ArrayList<>();
+        int i = 0;
+        while (i < raw.length) {
+            boolean fill = raw[i] == -1L;
+            long run = 0;
+            while (i < raw.length && run < MAX_RUN
+                    && (raw[i] == 0L || raw[i] == -1L) && (raw[i] == -1L) == fill) {
+                run++;
+                i++;
+            }
+            int literalStart = i;
+            while (i < raw.length && i - literalStart < MAX_LITERALS
+                    && raw[i] != 0L && raw[i] != -1L) {
+                i++;
+            }
+            long literals = i - literalStart;
+            out.add((fill ? 1L : 0L) | (run << 1) | (literals << 33));
+            for (int j = literalStart; j < i; j++) {
+                out.add(raw[j]);
+            }
+        }
+        long[] words = new long[out.size()];
+        for (int j = 0; j < words.length; j++) {
+            words[j] = out.get(j);
+        }
+        return new ReachabilityBitmap(words, bits.cardinality());
+    }
+
+    // expands this bitmap back into an ordinary BitSet
+    public BitSet toBitSet() {
+        List<Long> raw = new ArrayList<>();
+        int i = 0;
+        while (i < words.length) {
+            long marker = words[i++];
+            long fillWord = (marker & 1L) == 0 ? 0L : -1L;
+            long run = (marker >>> 1) & RUN_MASK;
+            long literals = marker >>> 33;
+            for (long r = 0; r < run; r++) {
+                raw.add(fillWord);
+            }
+            for (long l = 0; l < literals; l++) {
+                raw.add(words[i++]);
+            }
+        }
+        long[] expanded = new long[raw.size()];
+        for (int j = 0; j < expanded.length; j++) {
+            expanded[j] = raw.get(j);
+        }
+        return BitSet.valueOf(expanded);
+    }
+
+    // tests a single position by skipping over whole runs instead of expanding
+    public boolean get(int position) {
+        long wordIndex = position >>> 6;
+        long seen = 0;
+        int i = 0;
+        while (i < words.length) {
+            long marker = words[i++];
+            long run = (marker >>> 1) & RUN_MASK;
+            long literals = marker >>> 33;
+            if (wordIndex < seen + run) {
+                return (marker & 1L) != 0;
+            }
+            seen += run;
+            if (wordIndex < seen + literals) {
+                long word = words[i + (int) (wordIndex - seen)];
+                return (word & (1L << position)) != 0;
+            }
+            seen += literals;
+            i += (int) literals;
+        }
+        return false;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(cardinality);
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    static ReachabilityBitmap readFrom(DataInputStream in) throws IOException {
+        int cardinality = in.readInt();
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return new ReachabilityBitmap(words, cardinality);
+    }
+}
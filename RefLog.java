@@ -0,0 +1,366 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import gitlet.ObjectDatabase.Namespace;
+
+/** HEAD and the branches, kept in the ROOT entry refs.log as an append-only
+ *  log of ref transactions.  Each command that moves refs appends a single
+ *  record holding every update it makes, so a commit costs one small append
+ *  and one fsync however many branches there are:
+ *
+ *      length (4)  time (8)  message  update count (4)
+ *      { kind (1)  name  old id  new id }*  crc32 of everything between (4)
+ *
+ *  with strings in DataOutput's modified UTF-8 and "" for no commit.  A
+ *  BRANCH update moves (or with no new id deletes) the branch NAME; a HEAD
+ *  update puts HEAD on the branch NAME.
+ *
+ *  Opening replays the log into the current refs plus one reflog per branch
+ *  and one for HEAD.  A torn record at the end is dropped and the log
+ *  rewritten without it.  Once the log holds twice as many entries as a
+ *  compaction would keep, it is rewritten with only the reflogs of refs that
+ *  still exist, less their entries older than EXPIRE_MILLIS but the latest.
+ *  As in git, a deleted branch's reflog lasts until then.
+ *  @author Jackson Qi
+ */
+class RefLog {
+
+    /** The ROOT entry the log lives in. */
+    static final String NAME = "refs.log";
+    /** Reflog entries older than this go at the next compaction, 90 days like git. */
+    static final long EXPIRE_MILLIS = 90L * 24 * 60 * 60 * 1000;
+    /** A log with fewer entries than this is never worth compacting. */
+    private static final int MIN_COMPACTION_ENTRIES = 4096;
+    /** Longest reflog message kept; messages are one line of a commit message at most. */
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+
+    private static final byte BRANCH = 1;
+    private static final byte HEAD = 2;
+
+    /** One move of a ref. */
+    static class Entry {
+        /** The branch moved, or for HEAD the branch HEAD moved onto. */
+        final String branch;
+        /** Commit ids before and after, null for none. */
+        final String oldID;
+        final String newID;
+        final long time;
+        final String message;
+
+        Entry(String branch, String oldID, String newID, long time, String message) {
+            this.branch = branch;
+            this.oldID = oldID;
+            this.newID = newID;
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    private final ObjectDatabase db;
+    private final HashMap<String, String> branches = new HashMap<>();
+    private final Map<String, String> branchesView = Collections.unmodifiableMap(branches);
+    private String headBranch;
+    private String headCommit;
+    private final HashMap<String, List<Entry>> branchLogs = new HashMap<>();
+    private final List<Entry> headLog = new ArrayList<>();
+    /** Entries in the log, and how many of them a compaction now would keep. */
+    private int entries;
+    private int retained;
+
+    private RefLog(ObjectDatabase db) {
+        this.db = db;
+    }
+
+    // a new log with BRANCH as the only branch, at COMMITID, and HEAD on it
+    static RefLog create(ObjectDatabase db, String branch, String commitID, String message) {
+        RefLog refs = new RefLog(db);
+        List<Entry> updates = new ArrayList<>();
+        updates.add(new Entry(branch, null, commitID, 0, null));
+        updates.add(new Entry(branch, null, commitID, 0, null));
+        refs.append(message, updates, 1);
+        return refs;
+    }
+
+    // the refs in DB, converting the branches and HEAD entries of older repositories;
+    // null if there are none
+    static RefLog load(ObjectDatabase db) {
+        RefLog refs = new RefLog(db);
+        byte[] log = db.get(Namespace.ROOT, NAME);
+        if (log == null) {
+            return refs.convert() ? refs : null;
+        }
+        boolean torn = refs.replay(log);
+        refs.retained = refs.countRetained(System.currentTimeMillis());
+        if (torn) {
+            refs.compact();
+        }
+        return refs.headBranch == null ? null : refs;
+    }
+
+    String headBranch() {
+        return headBranch;
+    }
+
+    String headCommit() {
+        return headCommit;
+    }
+
+    // branch name -> tip, kept current as the refs move
+    Map<String, String> branches() {
+        return branchesView;
+    }
+
+    // moves the current branch and HEAD together to COMMITID
+    void advance(String commitID, String message) {
+        List<Entry> updates = new ArrayList<>();
+        updates.add(new Entry(headBranch, branches.get(headBranch), commitID, 0, null));
+        updates.add(new Entry(headBranch, headCommit, commitID, 0, null));
+        append(message, updates, 1);
+    }
+
+    // puts HEAD on BRANCH, at its tip
+    void attachHead(String branch, String message) {
+        List<Entry> updates = new ArrayList<>();
+        updates.add(new Entry(branch, headCommit, branches.get(branch), 0, null));
+        append(message, updates, 0);
+    }
+
+    // points each branch in TIPS at its commit, creating the ones that do not exist
+    void setBranches(Map<String, String> tips, String message) {
+        List<Entry> updates = new ArrayList<>();
+        for (String branch : new TreeMap<>(tips).keySet()) {
+            updates.add(new Entry(branch, branches.get(branch), tips.get(branch), 0, null));
+        }
+        append(message, updates, updates.size());
+    }
+
+    void setBranch(String branch, String commitID, String message) {
+        setBranches(Collections.singletonMap(branch, commitID), message);
+    }
+
+    void deleteBranch(String branch, String message) {
+        List<Entry> updates = new ArrayList<>();
+        updates.add(new Entry(branch, branches.get(branch), null, 0, null));
+        // neither the reflog nor the deletion survives a compaction
+        retained -= branchLogs.get(branch).size() + 1;
+        append(message, updates, 1);
+    }
+
+    // every move of REF, "HEAD" or a branch, oldest first; null if it has none
+    List<Entry> reflog(String ref) {
+        List<Entry> log = ref.equals("HEAD") ? headLog : branchLogs.get(ref);
+        return log == null || log.isEmpty() ? null : Collections.unmodifiableList(log);
+    }
+
+    // every commit a reflog entry younger than SINCE moved a ref to
+    Set<String> reflogCommits(long since) {
+        Set<String> ids = new HashSet<>();
+        List<List<Entry>> logs = new ArrayList<>(branchLogs.values());
+        logs.add(headLog);
+        for (List<Entry> log : logs) {
+            for (Entry entry : log) {
+                if (entry.time > since && entry.newID != null) {
+                    ids.add(entry.newID);
+                }
+            }
+        }
+        return ids;
+    }
+
+    // writes one record with UPDATES, whose first NUMBRANCHES are branch updates and the
+    // rest HEAD updates, then applies them
+    private void append(String message, List<Entry> updates, int numBranches) {
+        long time = System.currentTimeMillis();
+        String line = firstLine(message);
+        List<Entry> stamped = new ArrayList<>();
+        for (Entry update : updates) {
+            stamped.add(new Entry(update.branch, update.oldID, update.newID, time, line));
+        }
+        byte[] record = encode(time, line, stamped, numBranches);
+        db.append(Namespace.ROOT, NAME, record);
+        for (int i = 0; i < stamped.size(); i++) {
+            apply(i < numBranches ? BRANCH : HEAD, stamped.get(i));
+        }
+        retained += stamped.size();
+        if (entries >= MIN_COMPACTION_ENTRIES && entries >= 2 * retained) {
+            compact();
+        }
+    }
+
+    private void apply(byte kind, Entry entry) {
+        if (kind == HEAD) {
+            headBranch = entry.branch;
+            headCommit = entry.newID;
+            headLog.add(entry);
+        } else {
+            if (entry.newID == null) {
+                branches.remove(entry.branch);
+            } else {
+                branches.put(entry.branch, entry.newID);
+            }
+            branchLogs.computeIfAbsent(entry.branch, b -> new ArrayList<>()).add(entry);
+        }
+        entries++;
+    }
+
+    // applies every whole record in LOG, returning whether a torn one was left at the end
+    private boolean replay(byte[] log) {
+        ByteBuffer buffer = ByteBuffer.wrap(log);
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt(buffer.position());
+            if (length < 0 || buffer.remaining() < 4 + length + 4) {
+                return true;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(log, buffer.position() + 4, length);
+            if (buffer.getInt(buffer.position() + 4 + length) != (int) crc.getValue()) {
+                return true;
+            }
+            try (DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(log, buffer.position() + 4, length))) {
+                long time = in.readLong();
+                String message = in.readUTF();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte kind = in.readByte();
+                    String branch = in.readUTF();
+                    String oldID = orNull(in.readUTF());
+                    String newID = orNull(in.readUTF());
+                    apply(kind, new Entry(branch, oldID, newID, time, message));
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            buffer.position(buffer.position() + 4 + length + 4);
+        }
+        return buffer.hasRemaining();
+    }
+
+    // turns the branches and HEAD entries written before refs.log into its first record
+    private boolean convert() {
+        byte[] headBytes = db.get(Namespace.ROOT, Repository.HEAD_NAME);
+        byte[] branchBytes = db.get(Namespace.ROOT, Repository.BRANCHES_NAME);
+        if (headBytes == null || branchBytes == null) {
+            return false;
+        }
+        Head head = Utils.deserialize(headBytes, Head.class);
+        @SuppressWarnings("unchecked")
+        HashMap<String, String> tips = Utils.deserialize(branchBytes, HashMap.class);
+        List<Entry> updates = new ArrayList<>();
+        for (String branch : new TreeMap<>(tips).keySet()) {
+            updates.add(new Entry(branch, null, tips.get(branch), 0, null));
+        }
+        updates.add(new Entry(head.branch, null, head.HEAD, 0, null));
+        append("convert: from branches and HEAD", updates, tips.size());
+        db.delete(Namespace.ROOT, Repository.BRANCHES_NAME);
+        db.delete(Namespace.ROOT, Repository.HEAD_NAME);
+        return true;
+    }
+
+    // how many entries a compaction at NOW would keep
+    private int countRetained(long now) {
+        int count = keep(headLog, true, now).size();
+        for (Map.Entry<String, List<Entry>> log : branchLogs.entrySet()) {
+            count += keep(log.getValue(), branches.containsKey(log.getKey()), now).size();
+        }
+        return count;
+    }
+
+    // nothing if the ref is not LIVE, else the entries of LOG younger than the expiry
+    // and its latest one
+    private static List<Entry> keep(List<Entry> log, boolean live, long now) {
+        List<Entry> kept = new ArrayList<>();
+        if (!live) {
+            return kept;
+        }
+        for (int i = 0; i < log.size(); i++) {
+            Entry entry = log.get(i);
+            if (now - entry.time < EXPIRE_MILLIS || i == log.size() - 1) {
+                kept.add(entry);
+            }
+        }
+        return kept;
+    }
+
+    // replaces the log with one record per entry worth keeping
+    private void compact() {
+        long now = System.currentTimeMillis();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        int count = 0;
+        for (String branch : new TreeMap<>(branchLogs).keySet()) {
+            List<Entry> kept = keep(branchLogs.get(branch), branches.containsKey(branch), now);
+            if (kept.isEmpty()) {
+                branchLogs.remove(branch);
+                continue;
+            }
+            branchLogs.put(branch, kept);
+            for (Entry entry : kept) {
+                log.writeBytes(encode(entry.time, entry.message, List.of(entry), 1));
+            }
+            count += kept.size();
+        }
+        List<Entry> keptHead = keep(headLog, true, now);
+        headLog.clear();
+        headLog.addAll(keptHead);
+        for (Entry entry : keptHead) {
+            log.writeBytes(encode(entry.time, entry.message, List.of(entry), 0));
+        }
+        count += keptHead.size();
+        db.put(Namespace.ROOT, NAME, log.toByteArray());
+        entries = count;
+        retained = count;
+    }
+
+    private static byte[] encode(long time, String message, List<Entry> updates,
+                                 int numBranches) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeLong(time);
+            out.writeUTF(message);
+            out.writeInt(updates.size());
+            for (int i = 0; i < updates.size(); i++) {
+                Entry update = updates.get(i);
+                out.writeByte(i < numBranches ? BRANCH : HEAD);
+                out.writeUTF(update.branch);
+                out.writeUTF(update.oldID == null ? "" : update.oldID);
+                out.writeUTF(update.newID == null ? "" : update.newID);
+            }
+            out.writeInt(0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int length = record.capacity() - 8;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length);
+        record.putInt(0, length);
+        record.putInt(4 + length, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static String firstLine(String message) {
+        int newline = message.indexOf('\n');
+        String line = newline < 0 ? message : message.substring(0, newline);
+        return line.length() > MAX_MESSAGE_LENGTH ? line.substring(0, MAX_MESSAGE_LENGTH) : line;
+    }
+
+    private static String orNull(String id) {
+        return id.isEmpty() ? null : id;
+    }
+}
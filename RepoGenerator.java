@@ -0,0 +1,265 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import gitlet.ObjectDatabase.Namespace;
+
+import static gitlet.Utils.*;
+
+/** Builds a synthetic repository of a given shape in the current directory,
+ *  which must not contain a .gitlet yet:
+ *
+ *      java gitlet.RepoGenerator [commits=N] [files=N] [size=BYTES]
+ *                                [changes=N] [branches=N] [merges=P]
+ *                                [conflicts=P] [seed=S]
+ *
+ *  Commits, blobs, filters and the commit graph are written straight into
+ *  the ObjectDatabase instead of going through add and commit, so nothing is
+ *  re-read from disk between commits.  The same parameters always produce
+ *  the same commit ids.
+ *
+ *  Each commit goes on a randomly chosen branch and rewrites CHANGES files.
+ *  With probability CONFLICTS each rewritten file comes from a small set of
+ *  files shared by every branch, and otherwise from files only that branch
+ *  touches.  So CONFLICTS controls how often a later merge hits a file
+ *  changed on both sides.  With probability MERGES a commit is instead a
+ *  merge of another branch into the chosen one, taking the other branch's
+ *  version of every file it changed.  At the end master is checked out into
+ *  the working directory.
+ *  @author Jackson Qi
+ */
+public class RepoGenerator {
+
+    private int numCommits = 1000;
+    private int numFiles = 100;
+    private int fileSize = 256;
+    private int changesPerCommit = 2;
+    private int numBranches = 4;
+    private double mergeRate = 0.05;
+    private double conflictRate = 0.1;
+    private long seed = 1;
+
+    private Repository repo;
+    private ObjectDatabase db;
+    private Random random;
+    private SimpleDateFormat dateFormat;
+    private long clock;
+    private HashMap<ObjectId, Blob> blobStorage;
+    private CommitGraph graph;
+    private HashMap<String, String> tips;
+    private HashMap<String, HashMap<String, String>> tipFiles;
+
+    public static void main(String... args) {
+        RepoGenerator generator = new RepoGenerator();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2 || !generator.set(parts[0], parts[1])) {
+                System.out.println("Unknown generator parameter: " + arg);
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        try (Repository repo = Repository.init(new File(System.getProperty("user.dir")),
+                HashAlgorithm.SHA1, FileObjectDatabase::new,
+                new PrintStream(OutputStream.nullOutputStream()))) {
+            generator.generate(repo);
+        }
+        System.out.printf("Generated %d commits in %d ms.%n", generator.numCommits,
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    // sets parameter NAME to VALUE, returning false for unknown names
+    public boolean set(String name, String value) {
+        switch (name) {
+            case "commits":
+                numCommits = Integer.parseInt(value);
+                return true;
+            case "files":
+                numFiles = Integer.parseInt(value);
+                return true;
+            case "size":
+                fileSize = Integer.parseInt(value);
+                return true;
+            case "changes":
+                changesPerCommit = Integer.parseInt(value);
+                return true;
+            case "branches":
+                numBranches = Math.max(1, Integer.parseInt(value));
+                return true;
+            case "merges":
+                mergeRate = Double.parseDouble(value);
+                return true;
+            case "conflicts":
+                conflictRate = Double.parseDouble(value);
+                return true;
+            case "seed":
+                seed = Long.parseLong(value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // fills TARGET, which must have just been initialized, and reloads it
+    public void generate(Repository target) {
+        repo = target;
+        db = target.database();
+        populate();
+        repo.reload();
+    }
+
+    private void populate() {
+        random = new Random(seed);
+        dateFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z");
+        clock = 1600000000000L;
+        @SuppressWarnings("unchecked")
+        HashMap<ObjectId, Blob> stored =
+                deserialize(db.get(Namespace.BLOBS, "blobStorage"), HashMap.class);
+        blobStorage = stored;
+        graph = new CommitGraph();
+        tips = new HashMap<>();
+        tipFiles = new HashMap<>();
+
+        // init stamps its initial commit with the current time; swap in one on our
+        // clock, and start the reflog over so nothing names the one we delete
+        String initCommit = repo.headCommitID();
+        db.delete(Namespace.COMMITS, initCommit);
+        db.delete(Namespace.FILTERS, initCommit);
+        String initial = writeCommit("initial commit", null, null,
+                new HashMap<>(), new HashMap<>());
+        db.delete(Namespace.ROOT, RefLog.NAME);
+        RefLog refs = RefLog.create(db, "master", initial, "commit (initial): initial commit");
+        HashMap<String, String> files = new HashMap<>();
+        for (int i = 0; i < numFiles; i++) {
+            files.put(fileName(i), putBlob(fileName(i), 0));
+        }
+        String first = writeCommit("files", initial, null, new HashMap<>(), files);
+        List<String> branchNames = new ArrayList<>();
+        for (int b = 0; b < numBranches; b++) {
+            String name = b == 0 ? "master" : "branch" + b;
+            branchNames.add(name);
+            tips.put(name, first);
+            tipFiles.put(name, files);
+        }
+
+        for (int c = 1; c < numCommits; c++) {
+            int b = random.nextInt(numBranches);
+            String branch = branchNames.get(b);
+            HashMap<String, String> parentFiles = tipFiles.get(branch);
+            HashMap<String, String> newFiles = new HashMap<>(parentFiles);
+
+            if (numBranches > 1 && random.nextDouble() < mergeRate) {
+                String other = branchNames.get((b + 1 + random.nextInt(numBranches - 1))
+                        % numBranches);
+                HashMap<String, String> otherFiles = tipFiles.get(other);
+                for (String name : ChangedPathFilter.changedPaths(otherFiles, parentFiles)) {
+                    if (otherFiles.containsKey(name)) {
+                        newFiles.put(name, otherFiles.get(name));
+                    }
+                }
+                commitOn(branch, writeCommit("Merged " + other + " into " + branch + ".",
+                        tips.get(branch), tips.get(other), parentFiles, newFiles), newFiles);
+                continue;
+            }
+
+            for (int k = 0; k < changesPerCommit; k++) {
+                int index = pickFile(b);
+                newFiles.put(fileName(index), putBlob(fileName(index), c));
+            }
+            commitOn(branch, writeCommit("commit " + c, tips.get(branch), null,
+                    parentFiles, newFiles), newFiles);
+        }
+
+        db.put(Namespace.BLOBS, "blobStorage", serialize(blobStorage));
+        db.put(Namespace.ROOT, Repository.GRAPH_NAME, serialize(graph));
+        refs.setBranches(tips, "generate: " + tips.size() + " branches");
+        refs.attachHead("master", "generate: checkout master");
+        for (String tip : tips.values()) {
+            repo.bitmapFor(graph, tip);
+        }
+        for (String name : tipFiles.get("master").keySet()) {
+            ObjectId id = ObjectId.fromString(tipFiles.get("master").get(name));
+            writeContents(join(repo.cwd, name), blobStorage.get(id).getContents());
+        }
+    }
+
+    // the first tenth of the files is shared by all branches; the rest is split among them
+    private int pickFile(int branch) {
+        int shared = Math.max(1, numFiles / 10);
+        if (random.nextDouble() < conflictRate || numFiles - shared < numBranches) {
+            return random.nextInt(shared);
+        }
+        int perBranch = (numFiles - shared) / numBranches;
+        return shared + branch * perBranch + random.nextInt(perBranch);
+    }
+
+    private void commitOn(String branch, String commitID, HashMap<String, String> files) {
+        tips.put(branch, commitID);
+        tipFiles.put(branch, files);
+    }
+
+    private String writeCommit(String message, String parent, String parent2,
+                               HashMap<String, String> parentFiles,
+                               HashMap<String, String> files) {
+        clock += 60000;
+        Commit commit = new Commit(dateFormat.format(new Date(clock)), message,
+                parent, parent2, files);
+        byte[] bytes = serialize(commit);
+        String id = hash(bytes);
+        db.put(Namespace.COMMITS, id, bytes);
+        repo.writeFilter(id, ChangedPathFilter.of(files, parentFiles, parent, parent2));
+        graph.add(id, parent, parent2);
+        return id;
+    }
+
+    // stores VERSION of file NAME as a blob and returns its id, exactly as add would;
+    // contents of Chunker.THRESHOLD bytes or more go in chunks
+    private String putBlob(String name, int version) {
+        String contents = contents(name, version);
+        String id = hash(name, contents);
+        byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+        Blob blob;
+        if (bytes.length < Chunker.THRESHOLD) {
+            blob = new Blob(name, id, contents);
+        } else {
+            try {
+                blob = Chunker.store(db, new ByteArrayInputStream(bytes), name, id);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            // so the checkout at the end can read it back
+            blob.attach(db, null);
+        }
+        blobStorage.put(ObjectId.fromString(id), blob);
+        return id;
+    }
+
+    // FILESIZE bytes of printable lines, determined by NAME and VERSION alone
+    private String contents(String name, int version) {
+        Random lines = new Random(seed * 31 + name.hashCode() * 17L + version);
+        StringBuilder sb = new StringBuilder(fileSize);
+        while (sb.length() < fileSize) {
+            int lineLength = 20 + lines.nextInt(60);
+            for (int i = 0; i < lineLength && sb.length() < fileSize - 1; i++) {
+                sb.append((char) ('a' + lines.nextInt(26)));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String fileName(int index) {
+        return "file" + index + ".txt";
+    }
+}
@@ -1,199 +1,514 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import static gitlet.Utils.*;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Function;
+
+import gitlet.ObjectDatabase.Namespace;
 
 /** Represents a gitlet repository.
- *  This class contains all the command methods we need to get the version control working
+ *  This class contains all the command methods we need to get the version control working.
+ *
+ *  Everything but the working files goes through an ObjectDatabase, plain
+ *  files under .gitlet unless the repository was created on another backend.
+ *  A Repository is opened once with open (or created with init) and keeps
+ *  the refs (see RefLog), the staging area, and every commit, blob table and
+ *  commit graph it has read in memory until it is closed.  Each command writes
+ *  what it changed straight back to the ObjectDatabase, so what is stored is
+ *  always current, but nothing is read twice.  Errors are thrown as GitletExceptions
+ *  whose message is the text the command line prints, and all other output
+ *  goes to the PrintStream given at open.  An open Repository holds the
+ *  repository lock, and is not safe for use from several threads at once.
  *  @author Jackson Qi
  */
 
-public class Repository {
-    private static Head HEAD;
-    private static HashMap<String, String> branches;
-    private static HashSet<String> blob;
-
-    // stagingAreaAdd and Remove are objects that should be stored in the stagingArea directory
-    private static HashMap<String, String> stagingAreaAdd = new HashMap<>();
-    private static HashMap<String, String> stagingAreaRemove = new HashMap<>();
-
-    /** The current working directory. */
-    public static final File CWD = new File(System.getProperty("user.dir"));
-    /** The .gitlet directory. */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
-    public static final File COMMITS_DIR = join(GITLET_DIR, "commits_dir");
-    public static final File STAGING_AREA = join(GITLET_DIR, "stagingArea");
-    public static final File BLOBS_DIR = join(GITLET_DIR, "blobs_dir");
-
-    public static final File HEAD_FILE = join(GITLET_DIR, "HEAD");
-    public static final File BRANCHES_FILE = join(GITLET_DIR, "branches");
-
-    public static void initCommand() {
-        if (!GITLET_DIR.exists()) {
-            GITLET_DIR.mkdir();
-            COMMITS_DIR.mkdir();
-            STAGING_AREA.mkdir();
-            BLOBS_DIR.mkdir();
-            branches = new HashMap<>();
-            Utils.writeObject(join(STAGING_AREA, "stagingAreaAdd"), stagingAreaAdd);
-            Utils.writeObject(join(STAGING_AREA, "stagingAreaRemove"), stagingAreaRemove);
-            writeObject(join(BLOBS_DIR, "blobStorage"), new HashMap<String, Blob>());
-
-            Commit initialCommit = new Commit();
-            File initial = Utils.join(COMMITS_DIR, sha1(serialize(initialCommit)));
-            Utils.writeObject(initial, initialCommit);
-
-            branches.put("master", sha1(serialize(initialCommit)));
-            HEAD = new Head(branches.get("master"), "master");
-            Utils.writeObject(BRANCHES_FILE, branches);
-            Utils.writeObject(HEAD_FILE, HEAD);
+public class Repository implements AutoCloseable {
+
+    /** Unreachable commits and blobs younger than this are kept by gc, two weeks like git. */
+    public static final long DEFAULT_GC_GRACE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    /** ROOT entries; see ObjectDatabase.Namespace.  HEAD and branches are only
+     *  read, to convert repositories from before RefLog. */
+    static final String HEAD_NAME = "HEAD";
+    static final String BRANCHES_NAME = "branches";
+    static final String GRAPH_NAME = "commit-graph";
+    /** Blob id -> when gc first found the blob unreferenced, for the blobs it has kept. */
+    static final String GC_ORPHANS_NAME = "gc-orphans";
+    /** Name of the object hash chosen at init; see HashAlgorithm. */
+    static final String HASH_NAME = "hash";
+    /** Remote name -> path of its .gitlet directory.  A clone's source is "origin",
+     *  which supplies whatever blobs the clone lacks. */
+    static final String REMOTES_NAME = "remotes";
+    static final String ORIGIN = "origin";
+    /** Settings of the LargeFileStore, if the repository has one. */
+    static final String LARGE_FILES_NAME = "large-files";
+    /** The stash entries' commit ids, one per line, newest first. */
+    static final String STASH_NAME = "stash";
+    /** The sparse checkout's patterns, as in a .gitletignore, if there is one. */
+    static final String SPARSE_NAME = "sparse-checkout";
+
+    /** The working directory. */
+    final File cwd;
+    /** The .gitlet directory; it holds the lock, and the objects unless they are in memory. */
+    final File gitletDir;
+    private final ObjectDatabase db;
+
+    private final PrintStream out;
+    private RepositoryLock lock;
+    private HashAlgorithm algorithm;
+
+    private RefLog refs;
+    private HashMap<String, String> stagingAdd;
+    private HashMap<String, String> stagingrm;
+    /** Loaded on first use, since it holds the contents of every file ever committed. */
+    private HashMap<ObjectId, Blob> blobStorage;
+    /** Every commit read or written so far, by id. */
+    private final HashMap<ObjectId, Commit> commits = new HashMap<>();
+    private CommitGraph graph;
+    private HashMap<String, String> remotes;
+    /** Remotes opened so far, kept until this repository is closed. */
+    private final HashMap<String, Repository> openRemotes = new HashMap<>();
+    /** Where fetch and push report their progress, if anywhere. */
+    private PrintStream progress;
+    /** Where files too big for the object database go; null if there is nowhere. */
+    private LargeFileStore largeFiles;
+    /** The files the working directory holds, if not all of them; see isMaterialized. */
+    private IgnoreMatcher sparse;
+
+    // the repository whose working directory is WORKTREE and whose objects are in DB;
+    // nothing is read until load
+    Repository(File workTree, ObjectDatabase db, PrintStream out) {
+        this.cwd = workTree;
+        this.gitletDir = join(cwd, ".gitlet");
+        this.db = db;
+        this.out = out;
+    }
 
-        } else {
-            System.out.println("A Gitlet version-control system "
-                            + "already exists in the current directory.");
-            System.exit(0);
+    public static Repository open(File workTree) {
+        return open(workTree, System.out);
+    }
+
+    // opens the repository in WORKTREE, blocking until no other process holds its lock
+    public static Repository open(File workTree, PrintStream out) {
+        File gitletDir = join(workTree, ".gitlet");
+        if (!gitletDir.exists()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        RepositoryLock lock = RepositoryLock.acquire(gitletDir);
+        Repository repo;
+        try {
+            repo = new Repository(workTree, openDatabase(gitletDir), out);
+        } catch (RuntimeException excp) {
+            lock.close();
+            throw excp;
+        }
+        repo.lock = lock;
+        try {
+            repo.load();
+        } catch (RuntimeException excp) {
+            repo.close();
+            throw excp;
+        }
+        return repo;
+    }
+
+    // the backend a repository was created with: a log if there is one, else plain files
+    private static ObjectDatabase openDatabase(File gitletDir) {
+        if (join(gitletDir, LogObjectDatabase.FILE_NAME).exists()) {
+            return LogObjectDatabase.open(gitletDir);
         }
+        return new FileObjectDatabase(gitletDir);
     }
 
+    public static Repository init(File workTree, HashAlgorithm algorithm) {
+        return init(workTree, algorithm, FileObjectDatabase::new, System.out);
+    }
 
-    public static void addCommand(String fileName) {
-//        File file = Utils.join(CWD, "testing/src/" + fileName);
-        File file = Utils.join(CWD, fileName);
-        checkFileExists(file); // would exit if the file does not exist, otherwise exists
-        // if exists, I add it to the staging area add
-        String[] contents = new String[]{fileName, Utils.readContentsAsString(file)};
+    /** Creates a new repository in WORKTREE and returns it open.  STORAGE makes
+     *  the object database from the new .gitlet directory; with
+     *  dir -> new MemoryObjectDatabase() nothing outlives the returned
+     *  Repository but an empty .gitlet. */
+    public static Repository init(File workTree, HashAlgorithm algorithm,
+                                  Function<File, ObjectDatabase> storage, PrintStream out) {
+        Repository repo = create(workTree, storage, out);
+        try {
+            repo.initCommand(algorithm);
+        } catch (RuntimeException excp) {
+            repo.close();
+            throw excp;
+        }
+        return repo;
+    }
+
+    /** Creates a repository in WORKTREE holding a copy of the one in SOURCE and
+     *  returns it open, with SOURCE's current branch checked out.  If BRANCH is
+     *  not null, only that branch is copied and checked out.  A DEPTH above 0
+     *  copies only the commits fewer than DEPTH generations behind a branch
+     *  tip, so history ends at their parents.  With BLOBLESS no file contents
+     *  are copied at all; each blob is fetched from SOURCE the first time a
+     *  command needs it, starting with the checkout of the tip. */
+    public static Repository clone(File source, File workTree, String branch, int depth,
+                                   boolean blobless, Function<File, ObjectDatabase> storage,
+                                   PrintStream out) {
+        if (!join(source, ".gitlet").isDirectory()) {
+            throw error("No Gitlet repository at %s.", source);
+        }
+        String[] existing = workTree.list();
+        if (existing != null && existing.length > 0) {
+            throw error("Destination path already exists and is not an empty directory.");
+        }
+        workTree.mkdirs();
+        try (Repository src = open(source, out)) {
+            String headBranch = branch == null ? src.refs.headBranch() : branch;
+            if (!src.refs.branches().containsKey(headBranch)) {
+                throw error("No such branch exists.");
+            }
+            Map<String, String> tips = branch == null ? src.refs.branches()
+                    : Collections.singletonMap(branch, src.refs.branches().get(branch));
+            Repository repo = create(workTree, storage, out);
+            try {
+                repo.cloneCommand(src, tips, headBranch, depth, blobless);
+            } catch (RuntimeException excp) {
+                repo.close();
+                throw excp;
+            }
+            return repo;
+        }
+    }
 
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        HashMap<String, String> stagingRm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
+    // an empty repository in WORKTREE, holding its lock
+    private static Repository create(File workTree, Function<File, ObjectDatabase> storage,
+                                     PrintStream out) {
+        File gitletDir = join(workTree, ".gitlet");
+        if (gitletDir.exists()) {
+            throw error("A Gitlet version-control system "
+                    + "already exists in the current directory.");
+        }
+        gitletDir.mkdir();
+        RepositoryLock lock = RepositoryLock.acquire(gitletDir);
+        Repository repo;
+        try {
+            repo = new Repository(workTree, storage.apply(gitletDir), out);
+        } catch (RuntimeException excp) {
+            lock.close();
+            throw excp;
+        }
+        repo.lock = lock;
+        return repo;
+    }
 
-        stagingAdd.put(fileName, sha1(contents));
+    @Override
+    public void close() {
+        for (Repository remote : openRemotes.values()) {
+            remote.close();
+        }
+        openRemotes.clear();
+        db.close();
+        if (lock != null) {
+            lock.close();
+            lock = null;
+        }
+    }
 
-//        System.out.println("StaginAdd After Add" + stagingAdd.toString());
+    // the backend this repository's objects live in
+    ObjectDatabase database() {
+        return db;
+    }
 
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
+    private void load() {
+        byte[] hashName = db.get(Namespace.ROOT, HASH_NAME);
+        algorithm = hashName == null ? HashAlgorithm.SHA1
+                : HashAlgorithm.forName(new String(hashName, StandardCharsets.UTF_8).trim());
+        enter();
+        refs = RefLog.load(db);
+        if (refs == null) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        stagingAdd = loadMap(Namespace.STAGING, "stagingAreaAdd");
+        stagingrm = loadMap(Namespace.STAGING, "stagingAreaRemove");
+        remotes = loadMap(Namespace.ROOT, REMOTES_NAME);
+        if (remotes == null) {
+            remotes = new HashMap<>();
+        }
+        largeFiles = LargeFileStore.fromConfig(loadMap(Namespace.ROOT, LARGE_FILES_NAME),
+                gitletDir);
+        byte[] patterns = db.get(Namespace.ROOT, SPARSE_NAME);
+        sparse = patterns == null ? null
+                : IgnoreMatcher.compile(new String(patterns, StandardCharsets.UTF_8));
+    }
 
-        Commit currentCommit =
-                readObject(join(COMMITS_DIR, HEAD.HEAD), Commit.class); // most recent commit
+    // drops everything held in memory and loads it again, for callers that wrote to the
+    // object database directly
+    void reload() {
+        blobStorage = null;
+        commits.clear();
+        graph = null;
+        load();
+    }
+
+    // Utils.hash uses the object hash of whichever repository this thread last entered
+    private void enter() {
+        HashAlgorithm.setCurrent(algorithm);
+    }
+
+    private void initCommand(HashAlgorithm hashAlgorithm) {
+        db.put(Namespace.ROOT, HASH_NAME,
+                hashAlgorithm.getName().getBytes(StandardCharsets.UTF_8));
+        algorithm = hashAlgorithm;
+        enter();
+        remotes = new HashMap<>();
+        stagingAdd = new HashMap<>();
+        stagingrm = new HashMap<>();
+        saveStagingArea();
+        blobStorage = new HashMap<>();
+        saveBlobs();
+
+        Commit initialCommit = new Commit();
+        String initialID = hash(serialize(initialCommit));
+        writeCommit(initialID, initialCommit);
+        writeFilter(initialID, ChangedPathFilter.of(
+                initialCommit.getFilesList(), new HashMap<>(), null, null));
+
+        refs = RefLog.create(db, "master", initialID, "commit (initial): initial commit");
+
+        graph = new CommitGraph();
+        graph.add(initialID, null, null);
+        graph.save(db, GRAPH_NAME);
+    }
+
+    // fills this empty repository from SRC; see clone
+    private void cloneCommand(Repository src, Map<String, String> tips, String headBranch,
+                              int depth, boolean blobless) {
+        algorithm = src.algorithm;
+        db.put(Namespace.ROOT, HASH_NAME, algorithm.getName().getBytes(StandardCharsets.UTF_8));
+        remotes = new HashMap<>();
+        remotes.put(ORIGIN, src.gitletDir.getAbsolutePath());
+        store(Namespace.ROOT, REMOTES_NAME, remotes);
+        if (src.largeFiles != null) {
+            // the store is shared, so only its settings are copied
+            largeFiles = LargeFileStore.fromConfig(src.largeFiles.toConfig(), gitletDir);
+            store(Namespace.ROOT, LARGE_FILES_NAME, largeFiles.toConfig());
+        }
+        stagingAdd = new HashMap<>();
+        stagingrm = new HashMap<>();
+        saveStagingArea();
+
+        // breadth first from the tips, so each commit is reached at its lowest generation;
+        // commits the source lacks are past its own shallow boundary
+        HashMap<String, Integer> generation = new HashMap<>();
+        Deque<String> queue = new ArrayDeque<>();
+        for (String tip : tips.values()) {
+            if (generation.putIfAbsent(tip, 1) == null) {
+                queue.add(tip);
+            }
+        }
+        List<Commit> copied = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            String id = queue.remove();
+            byte[] bytes = src.db.get(Namespace.COMMITS, id);
+            if (bytes == null) {
+                continue;
+            }
+            db.put(Namespace.COMMITS, id, bytes);
+            byte[] filter = src.db.get(Namespace.FILTERS, id);
+            if (filter != null) {
+                db.put(Namespace.FILTERS, id, filter);
+            }
+            Commit commit = src.grabCommit(id);
+            copied.add(commit);
+            int next = generation.get(id) + 1;
+            if (depth > 0 && next > depth) {
+                continue;
+            }
+            for (String parent : new String[]{commit.getParent(), commit.getParent2()}) {
+                if (parent != null && generation.putIfAbsent(parent, next) == null) {
+                    queue.add(parent);
+                }
+            }
+        }
+
+        blobStorage = new HashMap<>();
+        if (!blobless) {
+            for (Commit commit : copied) {
+                for (String hash : commit.getFilesList().values()) {
+                    ObjectId key = ObjectId.fromString(hash);
+                    if (!blobStorage.containsKey(key)) {
+                        Blob blob = src.grabBlob(hash);
+                        if (blob != null) {
+                            blobStorage.put(key, adopt(src, blob));
+                        }
+                    }
+                }
+            }
+        }
+        enter();
+        saveBlobs();
+
+        String message = "clone: from " + src.cwd.getAbsolutePath();
+        refs = RefLog.create(db, headBranch, tips.get(headBranch), message);
+        HashMap<String, String> others = new HashMap<>(tips);
+        others.remove(headBranch);
+        if (!others.isEmpty()) {
+            refs.setBranches(others, message);
+        }
+        CommitGraph commitGraph = loadGraph();
+        for (String tip : tips.values()) {
+            bitmapFor(commitGraph, tip);
+        }
+
+        // SRC is open and locked already, so it stands in for the origin until it is closed
+        HashMap<String, String> files = grabCommit(refs.headCommit()).getFilesList();
+        openRemotes.put(ORIGIN, src);
+        try {
+            fetchBlobs(files.values());
+        } finally {
+            openRemotes.remove(ORIGIN);
+        }
+        for (String fileName : files.keySet()) {
+            restoreFile(join(cwd, fileName), grabBlob(files.get(fileName)));
+        }
+        out.println("Cloned " + copied.size() + " commits and " + blobStorage.size()
+                + " blobs.");
+    }
+
+
+    public void addCommand(String fileName) {
+        enter();
+        File file = join(cwd, fileName);
+        checkFileExists(file); // throws if the file does not exist, otherwise exists
+        // if exists, I add it to the staging area add
+        String blobID = largeFiles != null && largeFiles.takes(file)
+                ? addLargeFile(fileName, file)
+                : hash(fileName, Utils.readContentsAsString(file));
+
+        stagingAdd.put(fileName, blobID);
+
+        Commit currentCommit = grabCommit(refs.headCommit()); // most recent commit
         // if the current commit has an identical file, then remove it from the staging area
-        if (isIdentical(currentCommit, fileName, file)) {
+        if (isIdentical(currentCommit, fileName, blobID)) {
             stagingAdd.remove(fileName);
         }
-        if (stagingRm.containsKey(fileName)) {
-            stagingRm.remove(fileName);
+        if (stagingrm.containsKey(fileName)) {
+            stagingrm.remove(fileName);
+        }
+        saveStagingArea();
+    }
+
+    // puts FILE, the working copy of FILENAME, in the large file store and returns the id of
+    // the pointer blob for it; the blob is recorded at once, so commit need not read FILE
+    private String addLargeFile(String fileName, File file) {
+        long length = file.length();
+        String objectID = largeFiles.put(file);
+        String blobID = hash(fileName, LargeFileStore.pointer(objectID, length));
+        ObjectId key = ObjectId.fromString(blobID);
+        if (!blobs().containsKey(key)) {
+            blobs().put(key, Blob.pointer(fileName, blobID, objectID, length));
+            saveBlobs();
         }
-        Utils.writeObject(join(STAGING_AREA, "stagingAreaAdd"), stagingAdd);
-        Utils.writeObject(join(STAGING_AREA, "stagingAreaRemove"), stagingRm);
+        return blobID;
+    }
 
-//        System.out.println(stagingAdd.toString());
+    // large-files <store> [--threshold=<bytes>] [--cache=<bytes>]: from now on files of at
+    // least THRESHOLD bytes are added to STORE, and at most CACHELIMIT bytes of them are
+    // kept in .gitlet for checkouts
+    public void largeFilesCommand(File store, long threshold, long cacheLimit) {
+        enter();
+        largeFiles = new LargeFileStore(store, gitletDir, threshold, cacheLimit);
+        store(Namespace.ROOT, LARGE_FILES_NAME, largeFiles.toConfig());
+        // the blob ids of large working files change with the threshold
+        db.delete(Namespace.STAGING, WorkingFiles.NAME);
     }
 
-    public static void commitCommand(String message, String parent2) {
+    public void commitCommand(String message, String parent2) {
+        enter();
         if (message.isEmpty()) {
-            System.out.println("Please enter a commit message.");
-            return;
+            throw error("Please enter a commit message.");
+        }
+        if (stagingAdd.isEmpty() && stagingrm.isEmpty() && parent2 == null) {
+            throw error("No changes added to the commit.");
         }
-        branches = readObject(join(GITLET_DIR, "branches"), HashMap.class);
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
 
-        Commit newCommit = new Commit(message, branches.get(HEAD.branch));
+        Commit newCommit = new Commit(message, refs.headCommit());
 
         if (parent2 != null) {
             newCommit.setParent2(parent2);
         }
 
-        // add every files in the staging area to a the file list in this commit object
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        HashMap<String, String> stagingrm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
-
-        if (stagingAdd.isEmpty() && stagingrm.isEmpty() && parent2 == null) {
-            System.out.println("No changes added to the commit.");
-            return;
-        }
-        HashMap<String, Blob> blobStorage =
-                readObject(join(BLOBS_DIR, "blobStorage"), HashMap.class);
-        Commit currCommit = grabCommit(HEAD.HEAD);
+        HashMap<ObjectId, Blob> blobs = blobs();
+        Commit currCommit = grabCommit(refs.headCommit());
 
         // grab all files in the currCommit (in staging add but not in staging remove
-        for (String fileName : currCommit.filesList.keySet()) {
+        for (String fileName : currCommit.getFilesList().keySet()) {
             if (!stagingAdd.containsKey(fileName) && !stagingrm.containsKey(fileName)) {
-                newCommit.filesList.put(fileName, currCommit.getFilesList().get(fileName));
+                newCommit.getFilesList().put(fileName, currCommit.getFilesList().get(fileName));
             }
         }
 
         // add all the ones that have been modified in staging add
+        boolean newBlobs = false;
         for (String fileName: stagingAdd.keySet()) {
             // key = name of file, value = sha1 of contents + fileName
-            newCommit.filesList.put(fileName, stagingAdd.get(fileName));
-            if (!blobStorage.containsKey(stagingAdd.get(fileName))) {
-                File file = Utils.join(CWD, fileName);
-//                File file = Utils.join(CWD, "testing/src/" + fileName);
-                String contents = readContentsAsString(file);
-                Blob newBlob = new Blob(fileName, stagingAdd.get(fileName), contents);
-                blobStorage.put(stagingAdd.get(fileName), newBlob);
+            newCommit.getFilesList().put(fileName, stagingAdd.get(fileName));
+            if (!blobs.containsKey(ObjectId.fromString(stagingAdd.get(fileName)))) {
+                File file = join(cwd, fileName);
+                blobs.put(ObjectId.fromString(stagingAdd.get(fileName)),
+                        newBlob(fileName, file, stagingAdd.get(fileName)));
+                newBlobs = true;
             }
         }
 
-
-//        System.out.println("current blob Map: " + blobStorage.toString());
-//        System.out.println("new commit: " + newCommit.toString());
-
-        String sha1ofNewCommit = sha1(serialize(newCommit));
-        File thisCommit = join(COMMITS_DIR, sha1ofNewCommit);
-        Utils.writeObject(thisCommit, newCommit);
+        String sha1ofNewCommit = hash(serialize(newCommit));
+        writeCommit(sha1ofNewCommit, newCommit);
+        writeFilter(sha1ofNewCommit, ChangedPathFilter.of(newCommit.getFilesList(),
+                currCommit.getFilesList(), newCommit.getParent(), parent2));
 
         // clear the staging area
         stagingAdd.clear();
         stagingrm.clear();
-        Utils.writeObject(join(STAGING_AREA, "stagingAreaAdd"), stagingAdd);
-        Utils.writeObject(join(STAGING_AREA, "stagingAreaRemove"), stagingrm);
+        saveStagingArea();
 
-        branches.put(HEAD.branch, sha1ofNewCommit);
-        HEAD.HEAD = sha1ofNewCommit;
+        if (newBlobs) {
+            saveBlobs();
+        }
+        refs.advance(sha1ofNewCommit,
+                (parent2 == null ? "commit: " : "commit (merge): ") + message);
 
-        Utils.writeObject(join(BLOBS_DIR, "blobStorage"), blobStorage);
-        Utils.writeObject(join(GITLET_DIR, "branches"), branches);
-        Utils.writeObject(join(GITLET_DIR, "HEAD"), HEAD);
+        CommitGraph commitGraph = loadGraph();
+        commitGraph.append(sha1ofNewCommit, newCommit.getParent(), parent2);
+        bitmapFor(commitGraph, sha1ofNewCommit);
     }
 
-    public static void rmCommand(String fileName) {
-//        File file = Utils.join(CWD, "testing/src/" + fileName);
-        File file = join(CWD, fileName);
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-        Commit currentCommit = readObject(join(COMMITS_DIR, HEAD.HEAD), Commit.class);
-
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        HashMap<String, String> stagingrm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
-
+    public void rmCommand(String fileName) {
+        enter();
+        File file = join(cwd, fileName);
+        Commit currentCommit = grabCommit(refs.headCommit());
 
         if (currentCommit.getFilesList().containsKey(fileName)) {
             stagingrm.put(fileName, currentCommit.getFilesList().get(fileName));
             restrictedDelete(file);
-            writeObject(join(STAGING_AREA, "stagingAreaRemove"), stagingrm);
+            saveStagingArea();
         } else if (stagingAdd.containsKey(fileName)) {
             stagingAdd.remove(fileName);
-            writeObject(join(STAGING_AREA, "stagingAreaAdd"), stagingAdd);
+            saveStagingArea();
         } else {
-            System.out.println("No reason to remove the file.");
+            throw error("No reason to remove the file.");
         }
-        return;
     }
 
-    public static void logCommand() {
-        branches = readObject(join(GITLET_DIR, "branches"), HashMap.class);
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-
-        Commit currCommit = grabCommit(HEAD.HEAD);
+    public void logCommand() {
+        enter();
+        Commit currCommit = grabCommit(refs.headCommit());
 
         while (currCommit != null) {
-            System.out.println(currCommit);
+            out.println(currCommit);
             if (currCommit.getParent() == null) {
                 break;
             }
@@ -201,138 +516,267 @@ public class Repository {
         }
     }
 
-    public static void globalLogCommand() {
-        List<String> commitsInSha1 = plainFilenamesIn(COMMITS_DIR);
+    // log -- <path>: only the commits that changed PATH, following it back across renames
+    public void logPathCommand(String path) {
+        enter();
+        String tracked = path;
+        String commitID = refs.headCommit();
+        while (commitID != null) {
+            ChangedPathFilter filter = grabFilter(commitID);
+            if (filter != null && !filter.mightContain(tracked)) {
+                commitID = filter.getParent();
+                continue;
+            }
+            Commit currCommit = grabCommit(commitID);
+            if (currCommit == null) {
+                // past the boundary of a shallow clone
+                break;
+            }
+            Commit parentCommit = grabCommit(currCommit.getParent());
+            String now = currCommit.getFilesList().get(tracked);
+            String before = parentCommit == null ? null : parentCommit.getFilesList().get(tracked);
+
+            if (!Objects.equals(now, before)) {
+                out.println(currCommit);
+                if (now != null && before == null && parentCommit != null) {
+                    String renamedFrom = findRenameSource(currCommit, parentCommit, tracked);
+                    if (renamedFrom != null) {
+                        tracked = renamedFrom;
+                    }
+                }
+            }
+            commitID = currCommit.getParent();
+        }
+    }
+
+    // the file that disappeared in CURR and whose contents match the newly added FILENAME
+    private String findRenameSource(Commit curr, Commit parent, String fileName) {
+        Blob blob = grabBlob(curr.getFilesList().get(fileName));
+        for (String oldName : parent.getFilesList().keySet()) {
+            if (!curr.getFilesList().containsKey(oldName)) {
+                Blob oldBlob = grabBlob(parent.getFilesList().get(oldName));
+                if (oldBlob != null && oldBlob.sameContents(blob)) {
+                    return oldName;
+                }
+            }
+        }
+        return null;
+    }
 
-        for (String sha1 : commitsInSha1) {
-            Commit thisCommit = readObject(join(COMMITS_DIR, sha1), Commit.class);
-            System.out.println(thisCommit);
+    // blame <file>: the commit that last changed each line of a file in the head commit
+    public void blameCommand(String fileName) {
+        enter();
+        String blobID = grabCommit(refs.headCommit()).getFilesList().get(fileName);
+        if (blobID == null) {
+            throw error("File does not exist in that commit.");
+        }
+        List<String> lines = Diff.lines(blobContents(fileName, blobID));
+        Blame blame = blame(refs.headCommit(), fileName, blobID);
+        String lineNumber = "%" + Integer.toString(lines.size()).length() + "d";
+        for (int i = 0; i < lines.size(); i++) {
+            String id = blame.commit(i);
+            out.println(id.substring(0, 8) + " (" + grabCommit(id).getDate() + " "
+                    + String.format(lineNumber, i + 1) + ") " + lines.get(i));
         }
     }
 
-    public static void findCommand(String message) {
-        List<String> commitsInSha1 = plainFilenamesIn(COMMITS_DIR);
+    // the blame of FILENAME, whose blob is BLOBID in the commit COMMITID; the file is
+    // followed back through first parents and renames one version at a time, diffing
+    // each against the one before, until every line has an owner or the stored blame of
+    // an older version supplies the owners of the lines still left
+    private Blame blame(String commitID, String fileName, String blobID) {
+        String version = introducedIn(commitID, fileName, blobID);
+        Blame stored = load(Namespace.BLAME, blameName(blobID, version), Blame.class);
+        if (stored != null) {
+            return stored;
+        }
+
+        String contents = blobContents(fileName, blobID);
+        int size = Diff.lines(contents).size();
+        String[] owners = new String[size];
+        int[] ownerLines = new int[size];
+        // where each line without an owner yet is in the version being looked at
+        int[] position = new int[size];
+        for (int i = 0; i < size; i++) {
+            position[i] = i;
+        }
+        int unowned = size;
+        String at = version;
+        String name = fileName;
+        while (unowned > 0) {
+            Commit commit = grabCommit(at);
+            Commit parent = grabCommit(commit.getParent());
+            String oldName = name;
+            String oldBlob = parent == null ? null : parent.getFilesList().get(name);
+            if (parent != null && oldBlob == null) {
+                oldName = findRenameSource(commit, parent, name);
+                oldBlob = oldName == null ? null : parent.getFilesList().get(oldName);
+            }
+            if (oldBlob == null) {
+                // the file starts here, or history does in a shallow clone
+                for (int i = 0; i < size; i++) {
+                    if (owners[i] == null) {
+                        owners[i] = at;
+                        ownerLines[i] = position[i];
+                    }
+                }
+                break;
+            }
+
+            String oldContents = blobContents(oldName, oldBlob);
+            int[] from = Diff.unchangedLines(oldContents, contents);
+            for (int i = 0; i < size; i++) {
+                if (owners[i] == null) {
+                    if (from[position[i]] < 0) {
+                        owners[i] = at;
+                        ownerLines[i] = position[i];
+                        unowned--;
+                    } else {
+                        position[i] = from[position[i]];
+                    }
+                }
+            }
+            at = introducedIn(commit.getParent(), oldName, oldBlob);
+            name = oldName;
+            contents = oldContents;
+
+            Blame older = load(Namespace.BLAME, blameName(oldBlob, at), Blame.class);
+            if (older != null) {
+                for (int i = 0; i < size; i++) {
+                    if (owners[i] == null) {
+                        owners[i] = older.commit(position[i]);
+                        ownerLines[i] = older.line(position[i]);
+                    }
+                }
+                break;
+            }
+        }
+        Blame blame = new Blame(owners, ownerLines);
+        store(Namespace.BLAME, blameName(blobID, version), blame);
+        return blame;
+    }
+
+    // the commit, COMMITID or an ancestor, that gave FILENAME the blob BLOBID; commits that
+    // leave the file alone are skipped by their changed-path filters without being read
+    private String introducedIn(String commitID, String fileName, String blobID) {
+        String id = commitID;
+        while (true) {
+            ChangedPathFilter filter = grabFilter(id);
+            String next;
+            if (filter != null && !filter.mightContain(fileName)) {
+                next = filter.getParent();
+            } else {
+                Commit commit = grabCommit(id);
+                next = hasBlob(commit.getParent(), fileName, blobID) ? commit.getParent()
+                        : hasBlob(commit.getParent2(), fileName, blobID) ? commit.getParent2()
+                        : null;
+            }
+            if (next == null || grabCommit(next) == null) {
+                return id;
+            }
+            id = next;
+        }
+    }
+
+    // whether FILENAME has the blob BLOBID in the commit COMMITID, which may be null
+    private boolean hasBlob(String commitID, String fileName, String blobID) {
+        Commit commit = grabCommit(commitID);
+        return commit != null && blobID.equals(commit.getFilesList().get(fileName));
+    }
+
+    // the name the blame of the blob BLOBID, introduced by COMMITID, is stored under
+    private static String blameName(String blobID, String commitID) {
+        return blobID + "." + commitID;
+    }
+
+    public void globalLogCommand() {
+        enter();
+        for (String sha1 : db.list(Namespace.COMMITS)) {
+            out.println(grabCommit(sha1));
+        }
+    }
+
+    public void findCommand(String message) {
+        enter();
         boolean commitsExist = false;
-        for (String sha1 : commitsInSha1) {
-            Commit thisCommit = readObject(join(COMMITS_DIR, sha1), Commit.class);
+        for (String sha1 : db.list(Namespace.COMMITS)) {
+            Commit thisCommit = grabCommit(sha1);
             if (thisCommit.getMessage().equals(message)) {
                 commitsExist = true;
-                System.out.println(thisCommit.getId());
+                out.println(thisCommit.getId());
             }
         }
         if (!commitsExist) {
-            System.out.println("Found no commit with that message.");
-            return;
+            throw error("Found no commit with that message.");
         }
     }
 
-    public static void statusCommand() {
-        System.out.println("=== Branches ===");
+    public void statusCommand() {
+        enter();
+        out.println("=== Branches ===");
         printBranches();
-        System.out.println("=== Staged Files ===");
-        printStageAdd();
-        System.out.println("=== Removed Files ===");
-        printStageRemove();
-        System.out.println("=== Modifications Not Staged For Commit ===\n");
-        System.out.println("=== Untracked Files ===");
-//        printUntrackedFilesEC();
-        return;
-    }
-
-    public static void checkoutCommand1(String fileName) {
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-
-        Commit currCommit = readObject(join(COMMITS_DIR, HEAD.HEAD), Commit.class);
-        HashMap<String, String> filesList = currCommit.getFilesList();
-        HashMap<String, Blob> blobStorage =
-                readObject(join(BLOBS_DIR, "blobStorage"), HashMap.class);
-        // Commit.files list: key = name of file, value = sha1 of contents + fileName
-        if (!filesList.containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            return;
-        }
-        String sha1ofFile = filesList.get(fileName);
-        Blob fileBlob = blobStorage.get(sha1ofFile);
-
-        String fileContent = fileBlob.getContents();
-
-        File file = join(CWD, fileName);
-        restoreFile(file, fileContent);
+        out.println("=== Staged Files ===");
+        printSorted(new ArrayList<>(stagingAdd.keySet()));
+        out.println("=== Removed Files ===");
+        printSorted(new ArrayList<>(stagingrm.keySet()));
+        out.println("=== Modifications Not Staged For Commit ===\n");
+        out.println("=== Untracked Files ===");
     }
 
-    public static void checkoutCommand2(String commitID, String fileName) {
-        branches = readObject(join(GITLET_DIR, "branches"), HashMap.class);
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
+    public void checkoutCommand1(String fileName) {
+        enter();
+        checkoutFile(grabCommit(refs.headCommit()), fileName);
+    }
 
+    public void checkoutCommand2(String commitID, String fileName) {
+        enter();
         Commit foundCommit = findCommitByIDinCurrentBranch(commitID);
         if (foundCommit == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw error("No commit with that id exists.");
         }
+        checkoutFile(foundCommit, fileName);
+    }
 
-        HashMap<String, String> filesList = foundCommit.getFilesList();
-
-        HashMap<String, Blob> blobStorage =
-                readObject(join(BLOBS_DIR, "blobStorage"), HashMap.class);
+    // writes FILENAME as it is in COMMIT into the working directory
+    private void checkoutFile(Commit commit, String fileName) {
         // Commit.fileslist: key = name of file, value = sha1 of contents + fileName
+        HashMap<String, String> filesList = commit.getFilesList();
         if (!filesList.containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            return;
+            throw error("File does not exist in that commit.");
         }
-
-        String sha1ofFile = filesList.get(fileName);
-        Blob fileBlob = blobStorage.get(sha1ofFile);
-
-        String fileContent = fileBlob.getContents();
-
-        File file = join(CWD, fileName);
-        restoreFile(file, fileContent);
-
-        return;
+        restoreFile(join(cwd, fileName), grabBlob(filesList.get(fileName)));
     }
 
-    public static void checkoutCommand3(String branchName) {
-        branches = readObject(join(GITLET_DIR, "branches"), HashMap.class);
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        HashMap<String, String> stagingrm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
-
-        if (!branches.containsKey(branchName)) {
-            System.out.println("No such branch exists.");
-            return;
-        } else if (HEAD.branch.equals(branchName)) {
-            System.out.println("No need to checkout the current branch.");
-            return;
+    public void checkoutCommand3(String branchName) {
+        enter();
+        if (!refs.branches().containsKey(branchName)) {
+            throw error("No such branch exists.");
+        } else if (refs.headBranch().equals(branchName)) {
+            throw error("No need to checkout the current branch.");
         }
 
         HashMap<String, String> currFileList =
-                readObject(join(COMMITS_DIR, HEAD.HEAD), Commit.class).getFilesList();
+                checkedOut(grabCommit(refs.headCommit()).getFilesList());
         HashMap<String, String> destFileList =
-                readObject(join(COMMITS_DIR, branches.get(branchName)),
-                        Commit.class).getFilesList();
-
-        HashMap<String, Blob> blobStorage =
-                readObject(join(BLOBS_DIR, "blobStorage"), HashMap.class);
+                materialized(grabCommit(refs.branches().get(branchName)).getFilesList());
+        fetchBlobs(currFileList.values());
+        fetchBlobs(destFileList.values());
 
         Set<Blob> currBlobs = new HashSet<>();
         Set<Blob> destBlobs = new HashSet<>();
 
         for (String hash : currFileList.values()) {
-            currBlobs.add(blobStorage.get(hash));
+            currBlobs.add(grabBlob(hash));
         }
         for (String hash : destFileList.values()) {
-            destBlobs.add(blobStorage.get(hash));
+            destBlobs.add(grabBlob(hash));
         }
 
         Set<String> untracked = getUntrackedFiles();
         for (String fileName : untracked) {
             if (destFileList.containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way; "
+                throw error("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
-                return;
             }
         }
 
@@ -341,139 +785,240 @@ public class Repository {
         stagingAdd.clear();
         stagingrm.clear();
 
+        saveStagingArea();
         //move the head to the branch
-        HEAD.HEAD = branches.get(branchName);
-        HEAD.branch = branchName;
+        refs.attachHead(branchName,
+                "checkout: moving from " + refs.headBranch() + " to " + branchName);
+    }
 
-        writeObject(join(STAGING_AREA, "stagingAreaAdd"), stagingAdd);
-        writeObject(join(STAGING_AREA, "stagingAreaRemove"), stagingrm);
 
-        Utils.writeObject(join(GITLET_DIR, "branches"), branches);
-        Utils.writeObject(join(GITLET_DIR, "HEAD"), HEAD);
+    public void branchCommand(String branchName) {
+        enter();
+        if (refs.branches().containsKey(branchName)) {
+            throw error("A branch with that name already exists.");
+        }
+        refs.setBranch(branchName, refs.headCommit(), "branch: Created from HEAD");
     }
 
+    // branch --contains <commit id>: every branch whose tip can reach the commit
+    public void branchContainsCommand(String commitID) {
+        enter();
+        CommitGraph commitGraph = loadGraph();
 
-    public static void branchCommand(String branchName) {
-        branches = readObject(join(GITLET_DIR, "branches"), HashMap.class);
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-
-        if (branches.containsKey(branchName)) {
-            System.out.println("A branch with that name already exists.");
-            return;
+        String fullID = commitGraph.resolve(commitID);
+        if (fullID == null) {
+            throw error("No commit with that id exists.");
         }
-        branches.put(branchName, HEAD.HEAD);
-        //HEAD.branch = branchName;
-
-        Utils.writeObject(join(GITLET_DIR, "branches"), branches);
-        //Utils.writeObject(join(GITLET_DIR, "HEAD"), HEAD);
+        int position = commitGraph.position(fullID);
+        List<String> containing = new ArrayList<>();
+        for (String branchName : refs.branches().keySet()) {
+            if (bitmapFor(commitGraph, refs.branches().get(branchName)).get(position)) {
+                containing.add(branchName);
+            }
+        }
+        printSortedBranches(containing);
     }
 
-    public static void rmBranchCommand(String branchName) {
-        branches = readObject(join(GITLET_DIR, "branches"), HashMap.class);
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-
-        String currentBranch = HEAD.branch;
+    public void rmBranchCommand(String branchName) {
+        enter();
+        String currentBranch = refs.headBranch();
         if (currentBranch.equals(branchName)) {
-            System.out.println("Cannot remove the current branch.");
-            return;
-        } else if (!branches.containsKey(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            return;
+            throw error("Cannot remove the current branch.");
+        } else if (!refs.branches().containsKey(branchName)) {
+            throw error("A branch with that name does not exist.");
         }
-        branches.remove(branchName);
-        writeObject(join(GITLET_DIR, "branches"), branches);
-        return;
+        refs.deleteBranch(branchName, "branch: deleted");
     }
 
-    public static void resetCommand(String commitID) {
-        branches = readObject(join(GITLET_DIR, "branches"), HashMap.class);
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        HashMap<String, String> stagingrm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
-
-        HashMap<String, Blob> blobStorage =
-                readObject(join(BLOBS_DIR, "blobStorage"), HashMap.class);
-
-        Set<Blob> currBlobs = new HashSet<>();
-        Set<Blob> destBlobs = new HashSet<>();
-
-        Commit currentCommit = grabCommit(HEAD.HEAD);
+    // reset <commit id> or reset <ref>@{<n>}, the commit REF was at N moves ago
+    public void resetCommand(String target) {
+        enter();
+        String commitID = resolveReflogEntry(target);
+        Commit currentCommit = grabCommit(refs.headCommit());
         Commit destinationCommit = grabCommit(commitID);
 
         if (destinationCommit == null) {
-            System.out.println("No commit with that id exists.");
-            return;
+            throw error("No commit with that id exists.");
         }
+        HashMap<String, String> currFileList = checkedOut(currentCommit.getFilesList());
+        HashMap<String, String> destFileList = materialized(destinationCommit.getFilesList());
+        fetchBlobs(currFileList.values());
+        fetchBlobs(destFileList.values());
 
-        for (String fileHash : currentCommit.filesList.values()) {
-            currBlobs.add(blobStorage.get(fileHash));
+        Set<Blob> currBlobs = new HashSet<>();
+        Set<Blob> destBlobs = new HashSet<>();
+
+        for (String fileHash : currFileList.values()) {
+            currBlobs.add(grabBlob(fileHash));
         }
-        for (String fileHash : destinationCommit.filesList.values()) {
-            destBlobs.add(blobStorage.get(fileHash));
+        for (String fileHash : destFileList.values()) {
+            destBlobs.add(grabBlob(fileHash));
         }
 
-
-
         Set<String> untracked = getUntrackedFiles();
 
         for (String fileName : untracked) {
-            if (destinationCommit.getFilesList().containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way; "
+            if (destFileList.containsKey(fileName)) {
+                throw error("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
-                return;
             }
         }
 
         restoreFiles(currBlobs, destBlobs);
 
-        HEAD.HEAD = commitID;
-        branches.put(HEAD.branch, commitID);
-
         // HAVE TO CLEAR STAGING AREA
         stagingAdd.clear();
         stagingrm.clear();
 
-        writeObject(join(STAGING_AREA, "stagingAreaAdd"), stagingAdd);
-        writeObject(join(STAGING_AREA, "stagingAreaRemove"), stagingrm);
-        writeObject(join(GITLET_DIR, "HEAD"), HEAD);
-        writeObject(join(GITLET_DIR, "branches"), branches);
+        saveStagingArea();
+        refs.advance(commitID, "reset: moving to " + commitID);
     }
 
-    public static void mergeCommand(String branchName) {
-        branches = readObject(join(GITLET_DIR, "branches"), HashMap.class);
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
+    // reflog [<ref>]: every position of a branch or HEAD, newest first
+    public void reflogCommand(String ref) {
+        enter();
+        List<RefLog.Entry> log = refs.reflog(ref);
+        if (log == null) {
+            throw error("No such branch exists.");
+        }
+        for (int n = 0; n < log.size(); n++) {
+            RefLog.Entry entry = log.get(log.size() - 1 - n);
+            String id = entry.newID == null ? entry.oldID : entry.newID;
+            out.println(id.substring(0, 7) + " " + ref + "@{" + n + "}: " + entry.message);
+        }
+    }
 
-        if (!branches.containsKey(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            return;
+    // diff: the changes in the working directory that are not staged yet; files nobody
+    // tracks are left out, as in status
+    public void diffCommand() {
+        enter();
+        Map<String, String> index = index();
+        List<String> changed = new ArrayList<>();
+        WorkingFiles workingFiles = WorkingFiles.load(db, cwd, this::workingBlobID);
+        for (String fileName : index.keySet()) {
+            // a file a sparse checkout leaves out is unchanged unless someone put it back
+            if ((isMaterialized(fileName) || workingFiles.names().contains(fileName))
+                    && !index.get(fileName).equals(workingFiles.blobID(fileName))) {
+                changed.add(fileName);
+            }
         }
-        Commit currentCommit = grabCommit(HEAD.HEAD);
-        Commit incomingCommit =
-                readObject(join(COMMITS_DIR, branches.get(branchName)), Commit.class);
+        workingFiles.save(db);
+        List<String> blobIDs = new ArrayList<>();
+        for (String fileName : changed) {
+            blobIDs.add(index.get(fileName));
+        }
+        fetchBlobs(blobIDs);
+        for (String fileName : changed) {
+            File file = join(cwd, fileName);
+            Diff.print(fileName, blobContents(fileName, index.get(fileName)),
+                    fileName, file.exists() ? readContentsAsString(file) : null, out);
+        }
+    }
+
+    // diff --cached: the changes staged for the next commit
+    public void diffCachedCommand() {
+        enter();
+        printDiff(grabCommit(refs.headCommit()).getFilesList(), index());
+    }
+
+    // diff <commit id> <commit id>: the changes made between two commits
+    public void diffCommitsCommand(String fromID, String toID) {
+        enter();
+        CommitGraph commitGraph = loadGraph();
+        String from = commitGraph.resolve(fromID);
+        String to = commitGraph.resolve(toID);
+        if (from == null || to == null) {
+            throw error("No commit with that id exists.");
+        }
+        printDiff(grabCommit(from).getFilesList(), grabCommit(to).getFilesList());
+    }
+
+    // the files the next commit would have if it were made now, by name
+    private TreeMap<String, String> index() {
+        TreeMap<String, String> index = new TreeMap<>(grabCommit(refs.headCommit())
+                .getFilesList());
+        index.keySet().removeAll(stagingrm.keySet());
+        index.putAll(stagingAdd);
+        return index;
+    }
+
+    // prints the diff of every file whose blob differs between FROM and TO, one file at a
+    // time; a file whose blob is the same on both sides is skipped without being read
+    private void printDiff(Map<String, String> from, Map<String, String> to) {
+        TreeSet<String> changed = new TreeSet<>();
+        List<String> blobIDs = new ArrayList<>();
+        for (Map.Entry<String, String> file : from.entrySet()) {
+            if (!file.getValue().equals(to.get(file.getKey()))) {
+                changed.add(file.getKey());
+                blobIDs.add(file.getValue());
+            }
+        }
+        for (Map.Entry<String, String> file : to.entrySet()) {
+            if (!file.getValue().equals(from.get(file.getKey()))) {
+                changed.add(file.getKey());
+                blobIDs.add(file.getValue());
+            }
+        }
+        fetchBlobs(blobIDs);
+        for (String fileName : changed) {
+            Diff.print(fileName, blobContents(fileName, from.get(fileName)),
+                    fileName, blobContents(fileName, to.get(fileName)), out);
+        }
+    }
+
+    // the contents of FILENAME's blob BLOBID, or null for no blob at all; a staged file
+    // has no blob until it is committed, but its contents are in the working directory
+    // for as long as they still hash to BLOBID
+    private String blobContents(String fileName, String blobID) {
+        if (blobID == null) {
+            return null;
+        }
+        Blob blob = storedBlob(blobID);
+        if (blob != null) {
+            return blob.getContents();
+        }
+        File file = join(cwd, fileName);
+        if (file.exists() && workingBlobID(fileName, file).equals(blobID)) {
+            return readContentsAsString(file);
+        }
+        blob = grabBlob(blobID);
+        if (blob == null) {
+            throw error("Missing file contents for %s.", blobID);
+        }
+        return blob.getContents();
+    }
+
+    public void mergeCommand(String branchName) {
+        enter();
+        if (!refs.branches().containsKey(branchName)) {
+            throw error("A branch with that name does not exist.");
+        }
+        Commit currentCommit = grabCommit(refs.headCommit());
+        Commit incomingCommit = grabCommit(refs.branches().get(branchName));
 
         Commit splitCommit = findIntersectingCommit(currentCommit, incomingCommit);
+        if (splitCommit == null) {
+            throw error("No common ancestor with that branch.");
+        }
         if (stagingAreaIsNotEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            return;
-        } else if (HEAD.branch.equals(branchName)) {
-            System.out.println("Cannot merge a branch with itself.");
-            return;
+            throw error("You have uncommitted changes.");
+        } else if (refs.headBranch().equals(branchName)) {
+            throw error("Cannot merge a branch with itself.");
         } else if (checkUntrackedwillgetOverriden(incomingCommit)) {
-            System.out.println("There is an untracked file in the way; "
+            throw error("There is an untracked file in the way; "
                     + "delete it, or add and commit it first.");
-            return;
         } else if (incomingCommit.getId().equals(splitCommit.getId())) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            return;
+            throw error("Given branch is an ancestor of the current branch.");
         } else if (currentCommit.getId().equals(splitCommit.getId())) {
             checkoutCommand3(branchName);
-            System.out.println("Current branch fast-forwarded.");
+            out.println("Current branch fast-forwarded.");
             return;
         }
 
+        fetchBlobs(materialized(currentCommit.getFilesList()).values());
+        fetchBlobs(materialized(splitCommit.getFilesList()).values());
+        fetchBlobs(materialized(incomingCommit.getFilesList()).values());
+
         // step 1
         mergeStep1(currentCommit, splitCommit, incomingCommit);
 
@@ -489,28 +1034,942 @@ public class Repository {
         mergeStep6(currentCommit, splitCommit, incomingCommit);
 
         // step 7
-        //System.out.println(intersectingCommit.toString());
 
         // step 8
         Map<String, Blob[]> conflicts = getMergeConflicts(currentCommit,
                 splitCommit, incomingCommit);
 
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        HashMap<String, String> stagingrm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
-
         if (conflicts.isEmpty()) {
-            writeFilesToCWD(stagingAdd, stagingrm);
+            writeFilesToCWD();
         } else {
             writeConflicts(conflicts);
-            System.out.println("Encountered a merge conflict.");
+            out.println("Encountered a merge conflict.");
         }
-        String message = "Merged " + branchName + " into " + HEAD.branch + ".";
+        String message = "Merged " + branchName + " into " + refs.headBranch() + ".";
         commitCommand(message, incomingCommit.getId());
     }
 
-    public static boolean checkUntrackedwillgetOverriden(Commit incoming) {
+    // gc: drops commits unreachable from every branch, HEAD and reflog once they are older than
+    // GRACEMILLIS, then every blob that no remaining commit or the staging area refers to
+    public void gcCommand(long graceMillis) {
+        enter();
+        long start = System.nanoTime();
+        CommitGraph commitGraph = loadGraph();
+
+        // mark: reachable commits come straight from the branch bitmaps, and unreachable
+        // ones younger than the grace period stay alive together with their history, as do
+        // commits a reflog entry names until it expires, whatever the grace period, so a
+        // reset can be undone.  A commit's age is when it was stored (db.lastModified), so
+        // the clock starts when the commit was made, not when it was orphaned: an old
+        // commit dropped from a branch goes at once unless the reflog still names it
+        BitSet keep = reachableCommits(commitGraph).toBitSet();
+        long now = System.currentTimeMillis();
+        long cutoff = now - graceMillis;
+        Set<String> reflogged = refs.reflogCommits(now - RefLog.EXPIRE_MILLIS);
+        // stash entries live until they are dropped, like the reflog of git's refs/stash
+        reflogged.addAll(loadStash());
+        for (int pos = 0; pos < commitGraph.size(); pos++) {
+            String id = commitGraph.idAt(pos);
+            if (!keep.get(pos) && (reflogged.contains(id)
+                    || db.lastModified(Namespace.COMMITS, id) > cutoff)) {
+                keep.or(commitGraph.reachableFrom(pos, p -> null));
+            }
+        }
+        List<String> keptCommits = new ArrayList<>();
+        for (int pos = keep.nextSetBit(0); pos >= 0; pos = keep.nextSetBit(pos + 1)) {
+            keptCommits.add(commitGraph.idAt(pos));
+        }
+        Set<ObjectId> liveBlobs = keptCommits.parallelStream()
+                .flatMap(id -> deserialize(db.get(Namespace.COMMITS, id), Commit.class)
+                        .getFilesList().values().stream())
+                .map(ObjectId::fromString)
+                .collect(java.util.stream.Collectors.toSet());
+        for (String hash : stagingAdd.values()) {
+            liveBlobs.add(ObjectId.fromString(hash));
+        }
+
+        // sweep
+        long reclaimed = 0;
+        int prunedCommits = 0;
+        Set<ObjectId> prunedCommitBlobs = new HashSet<>();
+        for (int pos = 0; pos < commitGraph.size(); pos++) {
+            if (!keep.get(pos)) {
+                String id = commitGraph.idAt(pos);
+                for (String hash : grabCommit(id).getFilesList().values()) {
+                    prunedCommitBlobs.add(ObjectId.fromString(hash));
+                }
+                reclaimed += db.size(Namespace.COMMITS, id) + db.size(Namespace.FILTERS, id);
+                db.delete(Namespace.COMMITS, id);
+                db.delete(Namespace.FILTERS, id);
+                commits.remove(ObjectId.fromString(id));
+                prunedCommits++;
+            }
+        }
+
+        // blobs of pruned commits go with them.  Any other unreferenced blob, such as one
+        // added and then unstaged, has no entry of its own to date it, so its clock starts
+        // at the first gc that finds it unreferenced and it lives until a gc at least the
+        // grace period after that
+        HashMap<String, String> orphans = loadMap(Namespace.ROOT, GC_ORPHANS_NAME);
+        if (orphans == null) {
+            orphans = new HashMap<>();
+        }
+        HashMap<String, String> stillOrphaned = new HashMap<>();
+        int prunedBlobs = 0;
+        for (Iterator<ObjectId> it = blobs().keySet().iterator(); it.hasNext();) {
+            ObjectId id = it.next();
+            if (liveBlobs.contains(id)) {
+                continue;
+            }
+            String seen = orphans.get(id.toString());
+            long orphanedAt = seen == null ? now : Long.parseLong(seen);
+            if (prunedCommitBlobs.contains(id) || orphanedAt <= cutoff) {
+                it.remove();
+                prunedBlobs++;
+            } else {
+                stillOrphaned.put(id.toString(), Long.toString(orphanedAt));
+            }
+        }
+        if (!stillOrphaned.equals(orphans)) {
+            store(Namespace.ROOT, GC_ORPHANS_NAME, stillOrphaned);
+        }
+        if (prunedBlobs > 0) {
+            long before = db.size(Namespace.BLOBS, "blobStorage");
+            saveBlobs();
+            reclaimed += before - db.size(Namespace.BLOBS, "blobStorage");
+        }
+        Set<String> liveChunks = new HashSet<>();
+        for (Blob blob : blobs().values()) {
+            if (blob.chunks != null) {
+                liveChunks.addAll(Arrays.asList(blob.chunks));
+            }
+        }
+        for (String chunk : db.list(Namespace.CHUNKS)) {
+            if (!liveChunks.contains(chunk)) {
+                reclaimed += db.size(Namespace.CHUNKS, chunk);
+                db.delete(Namespace.CHUNKS, chunk);
+            }
+        }
+
+        // positions shift once commits are gone, so every cached bitmap is stale
+        if (prunedCommits > 0) {
+            graph = commitGraph.retain(keep);
+            graph.save(db, GRAPH_NAME);
+            for (String name : db.list(Namespace.BITMAPS)) {
+                reclaimed += db.size(Namespace.BITMAPS, name);
+                db.delete(Namespace.BITMAPS, name);
+            }
+            reachableCommits(graph);
+            Set<String> kept = new HashSet<>(keptCommits);
+            for (String name : db.list(Namespace.BLAME)) {
+                if (!kept.contains(name.substring(name.indexOf('.') + 1))) {
+                    reclaimed += db.size(Namespace.BLAME, name);
+                    db.delete(Namespace.BLAME, name);
+                }
+            }
+        }
+
+        long millis = (System.nanoTime() - start) / 1000000;
+        out.println("Removed " + prunedCommits + " commits and " + prunedBlobs
+                + " blobs, reclaimed " + reclaimed + " bytes in " + millis + " ms.");
+    }
+
+    /* CHERRY-PICK AND REBASE */
+
+    // cherry-pick <commit id>: commits the change COMMITID made to its first parent on top
+    // of HEAD; a file both changed is committed with conflict markers, as merge does
+    public void cherryPickCommand(String commitID) {
+        enter();
+        String fullID = loadGraph().resolve(commitID);
+        Commit picked = grabCommit(fullID);
+        if (picked == null) {
+            throw error("No commit with that id exists.");
+        } else if (stagingAreaIsNotEmpty()) {
+            throw error("You have uncommitted changes.");
+        }
+        HashMap<ObjectId, Blob> conflictBlobs = new HashMap<>();
+        LinkedHashMap<String, Commit> replayed = replay(refs.headCommit(),
+                Collections.singletonList(picked), conflictBlobs);
+        if (replayed.isEmpty()) {
+            throw error("No changes added to the commit.");
+        }
+        finishReplay(refs.headCommit(), replayed, conflictBlobs,
+                "cherry-pick: " + picked.getMessage());
+    }
+
+    // rebase <branch>: replays the commits on the current branch's first-parent line that
+    // BRANCHNAME lacks on top of its tip.  Every replay is a merge of file lists in
+    // memory; the new commits are written and the working directory updated once, at the
+    // end, and nothing at all is written if an untracked file is in the way
+    public void rebaseCommand(String branchName) {
+        enter();
+        if (!refs.branches().containsKey(branchName)) {
+            throw error("A branch with that name does not exist.");
+        } else if (refs.headBranch().equals(branchName)) {
+            throw error("Cannot rebase a branch onto itself.");
+        } else if (stagingAreaIsNotEmpty()) {
+            throw error("You have uncommitted changes.");
+        }
+        String upstream = refs.branches().get(branchName);
+        String head = refs.headCommit();
+        CommitGraph commitGraph = loadGraph();
+        if (bitmapFor(commitGraph, head).get(commitGraph.position(upstream))) {
+            out.println("Current branch " + refs.headBranch() + " is up to date.");
+            return;
+        }
+        ReachabilityBitmap upstreamHistory = bitmapFor(commitGraph, upstream);
+        List<Commit> commits = new ArrayList<>();
+        String id = head;
+        while (id != null && commitGraph.contains(id)
+                && !upstreamHistory.get(commitGraph.position(id))) {
+            Commit commit = grabCommit(id);
+            commits.add(commit);
+            id = commit.getParent();
+        }
+        Collections.reverse(commits);
+
+        HashMap<ObjectId, Blob> conflictBlobs = new HashMap<>();
+        LinkedHashMap<String, Commit> replayed = replay(upstream, commits, conflictBlobs);
+        finishReplay(upstream, replayed, conflictBlobs,
+                "rebase (finish): " + refs.headBranch() + " onto " + upstream);
+    }
+
+    // the commits that replay the change each of COMMITS made to its first parent on top
+    // of ONTO, in order, by id; a commit whose change is there already is dropped.  Files
+    // committed with conflict markers get new blobs, which go in CONFLICTBLOBS
+    private LinkedHashMap<String, Commit> replay(String onto, List<Commit> commits,
+                                                 HashMap<ObjectId, Blob> conflictBlobs) {
+        LinkedHashMap<String, Commit> replayed = new LinkedHashMap<>();
+        String tip = onto;
+        Map<String, String> tipFiles = grabCommit(onto).getFilesList();
+        for (Commit commit : commits) {
+            Commit parent = grabCommit(commit.getParent());
+            Map<String, String> base = parent == null ? new HashMap<>() : parent.getFilesList();
+            TreeMerge merge = TreeMerge.of(base, tipFiles, commit.getFilesList());
+            for (String fileName : merge.conflicts()) {
+                String contents = conflictContents(
+                        blobOrNull(conflictBlobs, tipFiles.get(fileName)),
+                        blobOrNull(conflictBlobs, commit.getFilesList().get(fileName)));
+                String blobID = hash(fileName, contents);
+                conflictBlobs.put(ObjectId.fromString(blobID),
+                        new Blob(fileName, blobID, contents));
+                merge.files().put(fileName, blobID);
+            }
+            if (merge.files().equals(tipFiles)) {
+                continue;
+            }
+            Commit next = new Commit(commit.getMessage(), tip);
+            next.getFilesList().putAll(merge.files());
+            tip = hash(serialize(next));
+            tipFiles = next.getFilesList();
+            replayed.put(tip, next);
+        }
+        return replayed;
+    }
+
+    // the blob BLOBID, which may be one of CONFLICTBLOBS, or null for no blob
+    private Blob blobOrNull(HashMap<ObjectId, Blob> conflictBlobs, String blobID) {
+        if (blobID == null) {
+            return null;
+        }
+        Blob blob = conflictBlobs.get(ObjectId.fromString(blobID));
+        return blob != null ? blob : grabBlob(blobID);
+    }
+
+    // writes the commits REPLAYED, oldest first, and the blobs CONFLICTBLOBS, then moves
+    // the current branch to the last of them (or to ONTO if there are none) and updates
+    // the working directory from HEAD's files to that commit's in one pass
+    private void finishReplay(String onto, LinkedHashMap<String, Commit> replayed,
+                              HashMap<ObjectId, Blob> conflictBlobs, String message) {
+        Map<String, String> from = grabCommit(refs.headCommit()).getFilesList();
+        String tip = onto;
+        for (String id : replayed.keySet()) {
+            tip = id;
+        }
+        Map<String, String> to = replayed.isEmpty() ? grabCommit(onto).getFilesList()
+                : replayed.get(tip).getFilesList();
+        for (String fileName : getUntrackedFiles()) {
+            if (to.containsKey(fileName)) {
+                throw error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+            }
+        }
+
+        if (!conflictBlobs.isEmpty()) {
+            blobs().putAll(conflictBlobs);
+            saveBlobs();
+        }
+        CommitGraph commitGraph = loadGraph();
+        Map<String, String> parentFiles = grabCommit(onto).getFilesList();
+        for (Map.Entry<String, Commit> commit : replayed.entrySet()) {
+            Commit next = commit.getValue();
+            writeCommit(commit.getKey(), next);
+            writeFilter(commit.getKey(), ChangedPathFilter.of(next.getFilesList(), parentFiles,
+                    next.getParent(), null));
+            commitGraph.append(commit.getKey(), next.getParent(), null);
+            parentFiles = next.getFilesList();
+        }
+        if (!replayed.isEmpty()) {
+            bitmapFor(commitGraph, tip);
+        }
+
+        switchWorkingFiles(from, to);
+        refs.advance(tip, message);
+        if (!conflictBlobs.isEmpty()) {
+            out.println("Encountered a merge conflict.");
+        }
+    }
+
+    /* STASH */
+
+    // stash [push]: saves the staging area and the working copies of the tracked files
+    // as two commits on top of HEAD, then puts both back as they are in the head commit.
+    // Only blobs the repository lacks are written, and only files that differ from the
+    // head commit are touched, so a large tree with a few edits is stashed in no time
+    public void stashPushCommand() {
+        enter();
+        String base = refs.headCommit();
+        Commit head = grabCommit(base);
+        TreeMap<String, String> index = index();
+        Set<String> tracked = new TreeSet<>(index.keySet());
+        tracked.addAll(head.getFilesList().keySet());
+        WorkingFiles workingFiles = WorkingFiles.load(db, cwd, this::workingBlobID);
+        HashMap<String, String> working = new HashMap<>();
+        for (String fileName : tracked) {
+            // a file a sparse checkout leaves out is as it is in the index, unless someone
+            // put it back
+            String blobID = isMaterialized(fileName) || workingFiles.names().contains(fileName)
+                    ? workingFiles.blobID(fileName) : index.get(fileName);
+            if (blobID != null) {
+                working.put(fileName, blobID);
+            }
+        }
+        workingFiles.save(db);
+        if (!stagingAreaIsNotEmpty() && working.equals(head.getFilesList())) {
+            throw error("No local changes to save.");
+        }
+        // a staged file has no blob until it is committed, so its contents must still be
+        // in the working directory
+        for (String fileName : stagingAdd.keySet()) {
+            String blobID = stagingAdd.get(fileName);
+            if (storedBlob(blobID) == null && !blobID.equals(working.get(fileName))) {
+                throw error("Cannot stash %s: it has changed since it was added; "
+                        + "add it again first.", fileName);
+            }
+        }
+
+        boolean newBlobs = false;
+        for (String fileName : working.keySet()) {
+            newBlobs |= storeWorkingBlob(fileName, working.get(fileName));
+        }
+        if (newBlobs) {
+            saveBlobs();
+        }
+        String summary = refs.headBranch() + ": " + base.substring(0, 7) + " "
+                + head.getMessage();
+        Commit indexCommit = new Commit("index on " + summary, base);
+        indexCommit.getFilesList().putAll(index);
+        String indexID = hash(serialize(indexCommit));
+        writeCommit(indexID, indexCommit);
+        writeFilter(indexID, ChangedPathFilter.of(indexCommit.getFilesList(),
+                head.getFilesList(), base, null));
+        Commit stashCommit = new Commit("WIP on " + summary, base);
+        stashCommit.setParent2(indexID);
+        stashCommit.getFilesList().putAll(working);
+        String stashID = hash(serialize(stashCommit));
+        writeCommit(stashID, stashCommit);
+        writeFilter(stashID, ChangedPathFilter.of(stashCommit.getFilesList(),
+                head.getFilesList(), base, indexID));
+        CommitGraph commitGraph = loadGraph();
+        commitGraph.append(indexID, base, null);
+        commitGraph.append(stashID, base, indexID);
+
+        List<String> stash = loadStash();
+        stash.add(0, stashID);
+        saveStash(stash);
+
+        switchWorkingFiles(working, head.getFilesList());
+        // a changed file a sparse checkout leaves out goes back to being left out
+        for (String fileName : working.keySet()) {
+            if (!isMaterialized(fileName)
+                    && !working.get(fileName).equals(head.getFilesList().get(fileName))) {
+                restrictedDelete(join(cwd, fileName));
+            }
+        }
+        stagingAdd.clear();
+        stagingrm.clear();
+        saveStagingArea();
+        out.println("Saved working directory and index state WIP on " + summary);
+    }
+
+    // stash pop [<n>]: puts the files and staging area of stash@{N} back and drops it;
+    // it is refused, with nothing changed, if that would lose local changes or if the
+    // head commit changed a file the stash changed too
+    public void stashPopCommand(String entry) {
+        enter();
+        List<String> stash = loadStash();
+        int n = stashIndex(entry, stash);
+        if (stagingAreaIsNotEmpty()) {
+            throw error("You have uncommitted changes.");
+        }
+        Commit stashCommit = grabCommit(stash.get(n));
+        Map<String, String> base = grabCommit(stashCommit.getParent()).getFilesList();
+        Map<String, String> saved = stashCommit.getFilesList();
+        Map<String, String> staged = grabCommit(stashCommit.getParent2()).getFilesList();
+        Map<String, String> head = grabCommit(refs.headCommit()).getFilesList();
+
+        Set<String> names = new TreeSet<>(base.keySet());
+        names.addAll(saved.keySet());
+        names.addAll(staged.keySet());
+        WorkingFiles workingFiles = WorkingFiles.load(db, cwd, this::workingBlobID);
+        HashMap<String, String> working = new HashMap<>();
+        HashMap<String, String> restored = new HashMap<>();
+        for (String fileName : names) {
+            String before = base.get(fileName);
+            if (Objects.equals(before, saved.get(fileName))
+                    && Objects.equals(before, staged.get(fileName))) {
+                continue;
+            }
+            String now = head.get(fileName);
+            String work = isMaterialized(fileName) || workingFiles.names().contains(fileName)
+                    ? workingFiles.blobID(fileName) : now;
+            if (!Objects.equals(now, before)) {
+                throw error("Cannot apply the stash: %s has changed since it was stashed.",
+                        fileName);
+            } else if (!Objects.equals(work, now) && !Objects.equals(work, saved.get(fileName))) {
+                throw now == null ? error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.")
+                        : error("Your local changes to %s would be overwritten.", fileName);
+            }
+            if (work != null) {
+                working.put(fileName, work);
+            }
+            if (saved.get(fileName) != null) {
+                restored.put(fileName, saved.get(fileName));
+            }
+        }
+        workingFiles.save(db);
+        switchWorkingFiles(working, restored);
+        // a change to a file outside a sparse checkout would be lost unless it is written
+        for (String fileName : restored.keySet()) {
+            if (!isMaterialized(fileName)
+                    && !restored.get(fileName).equals(head.get(fileName))) {
+                restoreFile(join(cwd, fileName), grabBlob(restored.get(fileName)));
+            }
+        }
+        for (String fileName : names) {
+            String blobID = staged.get(fileName);
+            if (blobID == null && head.containsKey(fileName)) {
+                stagingrm.put(fileName, head.get(fileName));
+            } else if (blobID != null && !blobID.equals(head.get(fileName))) {
+                stagingAdd.put(fileName, blobID);
+            }
+        }
+        saveStagingArea();
+        dropStash(stash, n);
+    }
+
+    // stash list: every stash entry, newest first
+    public void stashListCommand() {
+        enter();
+        List<String> stash = loadStash();
+        for (int n = 0; n < stash.size(); n++) {
+            out.println("stash@{" + n + "}: " + grabCommit(stash.get(n)).getMessage());
+        }
+    }
+
+    // stash drop [<n>]: forgets stash@{N}; its commits go at the next gc
+    public void stashDropCommand(String entry) {
+        enter();
+        List<String> stash = loadStash();
+        dropStash(stash, stashIndex(entry, stash));
+    }
+
+    private void dropStash(List<String> stash, int n) {
+        String id = stash.remove(n);
+        saveStash(stash);
+        out.println("Dropped stash@{" + n + "} (" + id + ")");
+    }
+
+    // the position in STASH of ENTRY, which is N, stash@{N} or null for the newest
+    private static int stashIndex(String entry, List<String> stash) {
+        if (stash.isEmpty()) {
+            throw error("No stash entries found.");
+        }
+        if (entry == null) {
+            return 0;
+        }
+        String number = entry.startsWith("stash@{") && entry.endsWith("}")
+                ? entry.substring("stash@{".length(), entry.length() - 1) : entry;
+        try {
+            int n = Integer.parseInt(number);
+            if (n >= 0 && n < stash.size()) {
+                return n;
+            }
+        } catch (NumberFormatException excp) {
+            // falls through to the error below
+        }
+        throw error("No stash entry with that index exists.");
+    }
+
+    private List<String> loadStash() {
+        byte[] bytes = db.get(Namespace.ROOT, STASH_NAME);
+        List<String> stash = new ArrayList<>();
+        if (bytes != null) {
+            for (String id : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+                if (!id.isEmpty()) {
+                    stash.add(id);
+                }
+            }
+        }
+        return stash;
+    }
+
+    private void saveStash(List<String> stash) {
+        db.put(Namespace.ROOT, STASH_NAME,
+                String.join("\n", stash).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // makes sure the working file FILENAME, whose blob id is BLOBID, has a blob; returns
+    // whether one was added to the blob table and still has to be saved
+    private boolean storeWorkingBlob(String fileName, String blobID) {
+        if (storedBlob(blobID) != null) {
+            return false;
+        }
+        File file = join(cwd, fileName);
+        if (largeFiles != null && largeFiles.takes(file)) {
+            addLargeFile(fileName, file);
+            return false;
+        }
+        blobs().put(ObjectId.fromString(blobID), newBlob(fileName, file, blobID));
+        return true;
+    }
+
+    // turns the working files FROM, by name and blob id, into TO: those only in FROM are
+    // deleted, and those whose blob differs are written unless a sparse checkout leaves
+    // them out
+    private void switchWorkingFiles(Map<String, String> from, Map<String, String> to) {
+        List<String> writes = new ArrayList<>();
+        for (String fileName : to.keySet()) {
+            if (!to.get(fileName).equals(from.get(fileName)) && isMaterialized(fileName)) {
+                writes.add(fileName);
+            }
+        }
+        List<String> blobIDs = new ArrayList<>();
+        for (String fileName : writes) {
+            blobIDs.add(to.get(fileName));
+        }
+        fetchBlobs(blobIDs);
+
+        long start = Trace.start();
+        long written = 0;
+        for (String fileName : from.keySet()) {
+            if (!to.containsKey(fileName)) {
+                restrictedDelete(join(cwd, fileName));
+            }
+        }
+        for (String fileName : writes) {
+            Blob blob = grabBlob(to.get(fileName));
+            restoreFile(join(cwd, fileName), blob);
+            written += blob.size();
+        }
+        Trace.end(Trace.Op.RESTORE_FILES, start, written);
+    }
+
+    /* SPARSE CHECKOUT */
+
+    // sparse-checkout set <pattern>...: from now on only the files PATTERNS match are in
+    // the working directory.  Files that leave it are deleted and files that join it are
+    // written; commits still carry every file
+    public void sparseCheckoutSetCommand(List<String> patterns) {
+        enter();
+        String text = String.join("\n", patterns) + "\n";
+        changeSparseCheckout(IgnoreMatcher.compile(text));
+        db.put(Namespace.ROOT, SPARSE_NAME, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // sparse-checkout disable: puts every file back in the working directory
+    public void sparseCheckoutDisableCommand() {
+        enter();
+        changeSparseCheckout(null);
+        db.delete(Namespace.ROOT, SPARSE_NAME);
+    }
+
+    // sparse-checkout list: the patterns, one per line
+    public void sparseCheckoutListCommand() {
+        enter();
+        byte[] patterns = db.get(Namespace.ROOT, SPARSE_NAME);
+        if (patterns == null) {
+            throw error("This is not a sparse checkout.");
+        }
+        out.print(new String(patterns, StandardCharsets.UTF_8));
+    }
+
+    // makes the working directory hold the files of the index NEXT matches, or all of
+    // them if NEXT is null; refused, with nothing changed, if that would delete a file
+    // with local changes
+    private void changeSparseCheckout(IgnoreMatcher next) {
+        TreeMap<String, String> index = index();
+        WorkingFiles workingFiles = WorkingFiles.load(db, cwd, this::workingBlobID);
+        List<String> leaving = new ArrayList<>();
+        HashMap<String, String> joining = new HashMap<>();
+        for (String fileName : index.keySet()) {
+            boolean wanted = next == null || next.matches(fileName);
+            String work = workingFiles.blobID(fileName);
+            if (isMaterialized(fileName) && !wanted && work != null) {
+                if (!work.equals(index.get(fileName)) || storedBlob(work) == null) {
+                    throw error("Cannot leave out %s: it has local changes.", fileName);
+                }
+                leaving.add(fileName);
+            } else if (!isMaterialized(fileName) && wanted && work == null) {
+                joining.put(fileName, index.get(fileName));
+            }
+        }
+        workingFiles.save(db);
+
+        sparse = next;
+        switchWorkingFiles(Collections.emptyMap(), joining);
+        for (String fileName : leaving) {
+            restrictedDelete(join(cwd, fileName));
+        }
+    }
+
+    /* REMOTES */
+
+    // add-remote <name> <path to the remote's .gitlet>, with / as the separator
+    public void addRemoteCommand(String name, String path) {
+        enter();
+        if (remotes.containsKey(name)) {
+            throw error("A remote with that name already exists.");
+        }
+        remotes.put(name, path.replace("/", File.separator));
+        store(Namespace.ROOT, REMOTES_NAME, remotes);
+    }
+
+    public void rmRemoteCommand(String name) {
+        enter();
+        if (!remotes.containsKey(name)) {
+            throw error("A remote with that name does not exist.");
+        }
+        remotes.remove(name);
+        store(Namespace.ROOT, REMOTES_NAME, remotes);
+    }
+
+    // fetch: copies the history of the remote's BRANCHNAME that is missing here, and
+    // points the branch REMOTENAME/BRANCHNAME at its tip
+    public void fetchCommand(String remoteName, String branchName) {
+        enter();
+        Repository remote = remote(remoteName);
+        String tip = remote.refs.branches().get(branchName);
+        if (tip == null) {
+            throw error("That remote does not have that branch.");
+        }
+        Pack.transfer(remote, this, Collections.singletonList(tip), "Receiving objects",
+                progress);
+        enter();
+        refs.setBranch(remoteName + "/" + branchName, tip,
+                "fetch: " + remoteName + " " + branchName);
+    }
+
+    // push: copies the history of HEAD that is missing from the remote and moves the
+    // remote's BRANCHNAME up to HEAD, as long as that only adds commits to it
+    public void pushCommand(String remoteName, String branchName) {
+        enter();
+        Repository remote = remote(remoteName);
+        if (branchName.equals(remote.refs.headBranch())) {
+            // moving it would leave the remote's files and index behind its HEAD
+            throw error("Cannot push to the branch checked out in the remote.");
+        }
+        String remoteTip = remote.refs.branches().get(branchName);
+        String head = refs.headCommit();
+        CommitGraph commitGraph = loadGraph();
+        if (remoteTip != null && !(commitGraph.contains(remoteTip)
+                && bitmapFor(commitGraph, head).get(commitGraph.position(remoteTip)))) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+        Pack.transfer(this, remote, Collections.singletonList(head), "Writing objects",
+                progress);
+        remote.refs.setBranch(branchName, head, "push: from " + cwd.getAbsolutePath());
+        enter();
+    }
+
+    // pull: fetch, then merge REMOTENAME/BRANCHNAME into the current branch
+    public void pullCommand(String remoteName, String branchName) {
+        fetchCommand(remoteName, branchName);
+        mergeCommand(remoteName + "/" + branchName);
+    }
+
+    // fetch and push report how far along they are to ERR; without it they are silent
+    public void showProgress(PrintStream err) {
+        progress = err;
+    }
+
+    // the remote called NAME, opened and locked the first time it is needed
+    private Repository remote(String name) {
+        Repository remote = openRemotes.get(name);
+        if (remote != null) {
+            return remote;
+        }
+        String path = remotes.get(name);
+        if (path == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        File remoteDir = new File(path).isAbsolute() ? new File(path) : join(cwd, path);
+        if (!remoteDir.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        remote = open(remoteDir.getParentFile(),
+                new PrintStream(OutputStream.nullOutputStream()));
+        if (remote.algorithm != algorithm) {
+            remote.close();
+            throw error("That remote uses a different object hash.");
+        }
+        openRemotes.put(name, remote);
+        enter();
+        return remote;
+    }
+
+    /* QUERIES */
+
+    // the id of the commit HEAD points at
+    public String headCommitID() {
+        return refs.headCommit();
+    }
+
+    public String currentBranch() {
+        return refs.headBranch();
+    }
+
+    // branch name -> tip commit id
+    public Map<String, String> branches() {
+        return refs.branches();
+    }
+
+    // returns the commit with the full id COMMITID, or null if there is none
+    public Commit grabCommit(String commitID) {
+        if (commitID == null) {
+            return null;
+        }
+        ObjectId key;
+        try {
+            key = ObjectId.fromString(commitID);
+        } catch (IllegalArgumentException excp) {
+            // not a full id, so no commit has it
+            return null;
+        }
+        Commit found = commits.get(key);
+        if (found != null) {
+            return found;
+        }
+        long start = Trace.start();
+        byte[] bytes = db.get(Namespace.COMMITS, commitID);
+        if (bytes == null) {
+            Trace.end(Trace.Op.GRAB_COMMIT, start, 0);
+            return null;
+        }
+        found = deserialize(bytes, Commit.class);
+        found.setId(commitID);
+        commits.put(key, found);
+        Trace.end(Trace.Op.GRAB_COMMIT, start, bytes.length);
+        return found;
+    }
+
+    // grab blob given its id
+    public Blob grabBlob(String blobID) {
+        if (blobID == null) {
+            return null;
+        }
+        long start = Trace.start();
+        Blob found = storedBlob(blobID);
+        if (found == null && remotes.containsKey(ORIGIN)) {
+            fetchBlobs(Collections.singletonList(blobID));
+            found = storedBlob(blobID);
+        }
+        Trace.end(Trace.Op.GRAB_BLOB, start, found == null ? 0 : found.size());
+        return found;
+    }
+
+    // the blob BLOBID if this repository has it, never fetching it from the origin
+    Blob storedBlob(String blobID) {
+        Blob found = blobs().get(ObjectId.fromString(blobID));
+        if (found != null) {
+            found.attach(db, largeFiles);
+        }
+        return found;
+    }
+
+    // BLOB, from the repository FROM, once this repository has whichever of its chunks
+    // it lacked
+    private Blob adopt(Repository from, Blob blob) {
+        if (blob.chunks != null) {
+            for (String chunk : blob.chunks) {
+                if (db.size(Namespace.CHUNKS, chunk) == 0) {
+                    byte[] bytes = from.db.get(Namespace.CHUNKS, chunk);
+                    if (bytes == null) {
+                        throw error("Missing file contents for %s.", blob.fileSha1);
+                    }
+                    db.put(Namespace.CHUNKS, chunk, bytes);
+                }
+            }
+        }
+        return blob;
+    }
+
+    /* PERSISTENCE */
+
+    // the object stored as NAME, or null if there is none
+    private <T extends Serializable> T load(Namespace namespace, String name, Class<T> type) {
+        byte[] bytes = db.get(namespace, name);
+        return bytes == null ? null : deserialize(bytes, type);
+    }
+
+    // the HashMap stored as NAME, or null; its entries were written with the types K and V
+    private <K, V> HashMap<K, V> loadMap(Namespace namespace, String name) {
+        @SuppressWarnings("unchecked")
+        HashMap<K, V> map = load(namespace, name, HashMap.class);
+        return map;
+    }
+
+    private void store(Namespace namespace, String name, Serializable obj) {
+        long start = Trace.start();
+        byte[] bytes = serialize(obj);
+        db.put(namespace, name, bytes);
+        Trace.end(Trace.Op.WRITE_OBJECT, start, bytes.length);
+    }
+
+    private HashMap<ObjectId, Blob> blobs() {
+        if (blobStorage == null) {
+            blobStorage = loadMap(Namespace.BLOBS, "blobStorage");
+        }
+        return blobStorage;
+    }
+
+    private void saveBlobs() {
+        store(Namespace.BLOBS, "blobStorage", blobStorage);
+    }
+
+    // copies whichever of the blobs IDS this repository lacks from the one it was cloned
+    // from, all in one go; without an origin the missing blobs simply stay missing.  The
+    // large files of those that are pointers are brought into the cache as well
+    private void fetchBlobs(Collection<String> ids) {
+        HashMap<ObjectId, Blob> blobs = blobs();
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            if (!blobs.containsKey(ObjectId.fromString(id))) {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty() && remotes.containsKey(ORIGIN)) {
+            Repository origin = remote(ORIGIN);
+            boolean fetched = false;
+            for (String id : missing) {
+                Blob blob = origin.grabBlob(id);
+                if (blob != null) {
+                    blobs.put(ObjectId.fromString(id), adopt(origin, blob));
+                    fetched = true;
+                }
+            }
+            enter();
+            if (fetched) {
+                saveBlobs();
+            }
+        }
+
+        List<String> largeObjects = new ArrayList<>();
+        for (String id : ids) {
+            Blob blob = blobs.get(ObjectId.fromString(id));
+            if (blob != null && blob.largeObject != null) {
+                largeObjects.add(blob.largeObject);
+            }
+        }
+        if (!largeObjects.isEmpty() && largeFiles != null) {
+            largeFiles.prefetch(largeObjects);
+        }
+    }
+
+
+    private void saveStagingArea() {
+        store(Namespace.STAGING, "stagingAreaAdd", stagingAdd);
+        store(Namespace.STAGING, "stagingAreaRemove", stagingrm);
+    }
+
+    private void writeCommit(String commitID, Commit commit) {
+        store(Namespace.COMMITS, commitID, commit);
+        commit.setId(commitID);
+        commits.put(ObjectId.fromString(commitID), commit);
+    }
+
+    // returns the changed-path filter of a commit, or null for commits made before filters existed
+    ChangedPathFilter grabFilter(String commitID) {
+        return load(Namespace.FILTERS, commitID, ChangedPathFilter.class);
+    }
+
+    void writeFilter(String commitID, ChangedPathFilter filter) {
+        store(Namespace.FILTERS, commitID, filter);
+    }
+
+    CommitGraph loadGraph() {
+        if (graph == null) {
+            graph = CommitGraph.load(db, GRAPH_NAME);
+        }
+        return graph;
+    }
+
+    // the set of commits reachable from COMMITID, computed once and then kept in BITMAPS
+    ReachabilityBitmap bitmapFor(CommitGraph commitGraph, String commitID) {
+        ReachabilityBitmap stored = load(Namespace.BITMAPS, commitID, ReachabilityBitmap.class);
+        if (stored != null) {
+            return stored;
+        }
+        BitSet reachable = commitGraph.reachableFrom(commitGraph.position(commitID), pos ->
+                load(Namespace.BITMAPS, commitGraph.idAt(pos), ReachabilityBitmap.class));
+        ReachabilityBitmap bitmap = ReachabilityBitmap.of(reachable);
+        store(Namespace.BITMAPS, commitID, bitmap);
+        return bitmap;
+    }
+
+    // whether COMMITID is in the history of BRANCHNAME's tip
+    public boolean isContainedIn(String commitID, String branchName) {
+        enter();
+        CommitGraph commitGraph = loadGraph();
+        return bitmapFor(commitGraph, refs.branches().get(branchName))
+                .get(commitGraph.position(commitID));
+    }
+
+    // the commit TARGET names: REF@{N} is where REF was N moves ago, anything else is
+    // taken for a commit id
+    private String resolveReflogEntry(String target) {
+        int at = target.lastIndexOf("@{");
+        if (at <= 0 || !target.endsWith("}")) {
+            return target;
+        }
+        List<RefLog.Entry> log = refs.reflog(target.substring(0, at));
+        int n;
+        try {
+            n = Integer.parseInt(target.substring(at + 2, target.length() - 1));
+        } catch (NumberFormatException excp) {
+            return target;
+        }
+        if (log == null || n < 0 || n >= log.size()
+                || log.get(log.size() - 1 - n).newID == null) {
+            throw error("No commit with that id exists.");
+        }
+        return log.get(log.size() - 1 - n).newID;
+    }
+
+    // union of the bitmaps of every branch tip and HEAD
+    private ReachabilityBitmap reachableCommits(CommitGraph commitGraph) {
+        BitSet reachable = new BitSet(commitGraph.size());
+        for (String tip : refs.branches().values()) {
+            reachable.or(bitmapFor(commitGraph, tip).toBitSet());
+        }
+        reachable.or(bitmapFor(commitGraph, refs.headCommit()).toBitSet());
+        return ReachabilityBitmap.of(reachable);
+    }
+
+    /* HELPERS */
+
+    private boolean checkUntrackedwillgetOverriden(Commit incoming) {
         Set<String> untracked = getUntrackedFiles();
         for (String fileName : untracked) {
             if (incoming.getFilesList().containsKey(fileName)) {
@@ -520,46 +1979,44 @@ public class Repository {
         return false;
     }
 
-    public static void writeFilesToCWD(HashMap<String, String> stagingAdd,
-                                       HashMap<String, String> stagingrm) {
+    private void writeFilesToCWD() {
         for (String fileName1 : stagingAdd.keySet()) {
-            File file1 = join(CWD, fileName1);
-            writeContents(file1, grabBlob(stagingAdd.get(fileName1)).getContents());
+            if (isMaterialized(fileName1)) {
+                File file1 = join(cwd, fileName1);
+                restoreFile(file1, grabBlob(stagingAdd.get(fileName1)));
+            }
         }
 
         for (String fileName2 : stagingrm.keySet()) {
-            File file2 = join(CWD, fileName2);
+            File file2 = join(cwd, fileName2);
             restrictedDelete(file2);
         }
     }
 
-    public static void writeConflicts(Map<String, Blob[]> conflicts) {
+    private void writeConflicts(Map<String, Blob[]> conflicts) {
         for (String fileName : conflicts.keySet()) {
-            File cwdFile = join(CWD, fileName);
-
-            if (conflicts.get(fileName)[0] != null && conflicts.get(fileName)[1] != null) {
-                String curr = conflicts.get(fileName)[0].getContents();
-                String inc = conflicts.get(fileName)[1].getContents();
-                String output = "<<<<<<< HEAD\n" + curr
-                        + "\n" + "=======\n" + inc + "\n" + ">>>>>>>";
-                writeContents(cwdFile, output);
-
-            } else if (conflicts.get(fileName)[0] == null) { // curr is empty
-                String contents = conflicts.get(fileName)[1].getContents();
-                String output = "<<<<<<< HEAD\n"  + "=======\n" + contents + ">>>>>>>\n";
-                Utils.writeContents(cwdFile, output);
-
-            } else if (conflicts.get(fileName)[1] == null) { // incoming is empty
-                String contents = conflicts.get(fileName)[0].getContents();
-                String output = "<<<<<<< HEAD\n" + contents + "=======\n" + ">>>>>>>\n";
-                Utils.writeContents(cwdFile, output);
-            }
+            File cwdFile = join(cwd, fileName);
+            writeContents(cwdFile, conflictContents(conflicts.get(fileName)[0],
+                    conflicts.get(fileName)[1]));
             addCommand(fileName);
         }
     }
 
+    // the contents of a file in conflict, CURR on our side and INC on theirs; either may
+    // be null, for a side that removed the file
+    private static String conflictContents(Blob curr, Blob inc) {
+        if (curr != null && inc != null) {
+            return "<<<<<<< HEAD\n" + curr.getContents()
+                    + "\n" + "=======\n" + inc.getContents() + "\n" + ">>>>>>>";
+        } else if (curr == null) { // curr is empty
+            return "<<<<<<< HEAD\n"  + "=======\n" + inc.getContents() + ">>>>>>>\n";
+        }
+        // incoming is empty
+        return "<<<<<<< HEAD\n" + curr.getContents() + "=======\n" + ">>>>>>>\n";
+    }
+
     // file same in curr and split, but different in incoming
-    public static void mergeStep1(Commit curr, Commit split, Commit incoming) {
+    private void mergeStep1(Commit curr, Commit split, Commit incoming) {
         HashMap<String, String> currFiles = curr.getFilesList();
         HashMap<String, String> splitFiles = split.getFilesList();
         HashMap<String, String> incomingFiles = incoming.getFilesList();
@@ -581,40 +2038,34 @@ public class Repository {
                 }
             }
         }
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        Set<Blob> modifiedBranchBlobs = new HashSet<>();
         for (String fileName: modifiedIncomingFiles) {
-            Blob fileBlob = grabBlob(incomingFiles.get(fileName));
-            restoreFile(join(CWD, fileName), fileBlob.getContents());
+            if (isMaterialized(fileName)) {
+                restoreFile(join(cwd, fileName), grabBlob(incomingFiles.get(fileName)));
+            }
             stagingAdd.put(fileName, incomingFiles.get(fileName));
         }
-        writeObject(join(STAGING_AREA, "stagingAreaAdd"), stagingAdd);
+        saveStagingArea();
     }
 
     // file exist in incoming but not in curr and split
-    public static void mergeStep5(Commit curr, Commit split, Commit incoming) {
+    private void mergeStep5(Commit curr, Commit split, Commit incoming) {
         HashMap<String, String> currFiles = curr.getFilesList();
         HashMap<String, String> splitFiles = split.getFilesList();
         HashMap<String, String> incomingFiles = incoming.getFilesList();
 
-        HashMap<String, Blob> blobStorage =
-                readObject(join(BLOBS_DIR, "blobStorage"), HashMap.class);
-
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
         for (String fileName : incomingFiles.keySet()) {
             if (!splitFiles.containsKey(fileName) && !currFiles.containsKey(fileName)) {
                 stagingAdd.put(fileName, incomingFiles.get(fileName));
-                File file = join(CWD, fileName);
-                writeContents(file, blobStorage.get(incomingFiles.get(fileName)).getContents());
+                if (isMaterialized(fileName)) {
+                    restoreFile(join(cwd, fileName), grabBlob(incomingFiles.get(fileName)));
+                }
             }
         }
-        writeObject(join(STAGING_AREA, "stagingAreaAdd"), stagingAdd);
+        saveStagingArea();
     }
 
     // file are same in curr and split, but does NOT EXIST in incoming
-    public static void mergeStep6(Commit curr, Commit split, Commit incoming) {
+    private void mergeStep6(Commit curr, Commit split, Commit incoming) {
         HashMap<String, String> currFiles = curr.getFilesList();
         HashMap<String, String> splitFiles = split.getFilesList();
         HashMap<String, String> incomingFiles = incoming.getFilesList();
@@ -628,21 +2079,17 @@ public class Repository {
             }
         }
 
-        HashMap<String, String> stagingrm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
-
         for (String fileName : unmodifiedCurrentFiles) {
             if (!incomingFiles.containsKey(fileName)) {
-                restrictedDelete(fileName);
+                restrictedDelete(join(cwd, fileName));
                 stagingrm.put(fileName, currFiles.get(fileName));
             }
         }
-        writeObject(join(STAGING_AREA, "stagingAreaRemove"), stagingrm);
+        saveStagingArea();
     }
 
     // conflicts with 3 cases
-    public static Map<String, Blob[]> getMergeConflicts(Commit curr,
-                                                        Commit split, Commit incoming) {
+    private Map<String, Blob[]> getMergeConflicts(Commit curr, Commit split, Commit incoming) {
         HashMap<String, String> currFiles = curr.getFilesList();
         HashMap<String, String> splitFiles = split.getFilesList();
         HashMap<String, String> incomingFiles = incoming.getFilesList();
@@ -690,40 +2137,27 @@ public class Repository {
         return conflicts;
     }
 
-    // grab blob given file name
-    public static Blob grabBlob(String fileName) {
-        HashMap<String, Blob> blobStorage =
-                readObject(join(BLOBS_DIR, "blobStorage"), HashMap.class);
-        if (fileName == null) {
-            return null;
-        }
-        return blobStorage.get(fileName);
-    }
-
-
-
     // restore just 1 file in the CWD
-    public static void restoreFile(File file, String fileContent) {
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    // writes BLOB's contents to FILE, streaming a chunked blob a chunk at a time
+    private static void restoreFile(File file, Blob blob) {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            blob.copyContents(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        writeContents(file, fileContent);
     }
 
     // restores the files in the CWD
-    public static void restoreFiles(Set<Blob> currBlobs, Set<Blob> destBlobs) {
+    private void restoreFiles(Set<Blob> currBlobs, Set<Blob> destBlobs) {
+        long start = Trace.start();
+        long written = 0;
 
         List<Blob> blobsToBeDeleted = new ArrayList<>();
         for (Blob blob1 : currBlobs) {
 
             if (!destBlobs.contains(blob1)) {
                 //remove that file
-                File file = Utils.join(CWD, blob1.fileName);
-//                File file = Utils.join(CWD, "testing/src/" + blob.fileName);
+                File file = join(cwd, blob1.fileName);
                 if (file.exists()) {
                     file.delete();
                     blobsToBeDeleted.add(blob1);
@@ -736,151 +2170,142 @@ public class Repository {
         }
 
         for (Blob blob2 : destBlobs) {
-//            File file = Utils.join(CWD, "testing/src/" + blob.fileName);
-            File file = join(CWD, blob2.fileName);
-            if (!file.exists()) {
-                try {
-                    file.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-//            System.out.println(blob.getContents());
-            writeContents(file, blob2.getContents());
+            restoreFile(join(cwd, blob2.fileName), blob2);
+            written += blob2.size();
         }
+        Trace.end(Trace.Op.RESTORE_FILES, start, written);
+    }
 
+    // whether FILENAME belongs in the working directory: every file does unless a sparse
+    // checkout says otherwise
+    private boolean isMaterialized(String fileName) {
+        return sparse == null || sparse.matches(fileName);
     }
 
-    public static void exitIfnoInit() {
-        if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+    // the files of FILES, by name and blob id, that belong in the working directory
+    private HashMap<String, String> materialized(HashMap<String, String> files) {
+        if (sparse == null) {
+            return files;
+        }
+        HashMap<String, String> kept = new HashMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            if (sparse.matches(file.getKey())) {
+                kept.put(file.getKey(), file.getValue());
+            }
+        }
+        return kept;
+    }
+
+    // the files of FILES, the head commit's, that are in the working directory: those a
+    // sparse checkout takes in, and any other someone put back
+    private HashMap<String, String> checkedOut(HashMap<String, String> files) {
+        if (sparse == null) {
+            return files;
+        }
+        WorkingFiles workingFiles = WorkingFiles.load(db, cwd, this::workingBlobID);
+        HashMap<String, String> kept = materialized(files);
+        for (String fileName : workingFiles.names()) {
+            if (files.containsKey(fileName)) {
+                kept.put(fileName, files.get(fileName));
+            }
         }
+        workingFiles.save(db);
+        return kept;
     }
 
+    // the blob BLOBID of FILENAME, made from FILE, its working copy; big files are chunked
+    private Blob newBlob(String fileName, File file, String blobID) {
+        return file.length() >= Chunker.THRESHOLD
+                ? Chunker.store(db, file, fileName, blobID)
+                : new Blob(fileName, blobID, readContentsAsString(file));
+    }
 
-    // this is for the addCommand to check if the file exists in the CWD, if doesn't then will exit
-    public static void checkFileExists(File file) {
+    // this is for the addCommand to check if the file exists in the CWD
+    private static void checkFileExists(File file) {
         if (!file.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+            throw error("File does not exist.");
         }
     }
 
     // for addCommand to check if the file is identical to any files in the most recent commit
-    public static boolean isIdentical(Commit currCommit, String fileName, File file) {
-
-        String[] contents = new String[]{fileName, Utils.readContentsAsString(file)};
-
-        return currCommit.filesList != null
+    private static boolean isIdentical(Commit currCommit, String fileName, String blobID) {
+        return currCommit.getFilesList() != null
                 && currCommit.getFilesList().containsKey(fileName)
-                && (currCommit.getFilesList().get(fileName).equals(sha1(contents)));
+                && (currCommit.getFilesList().get(fileName).equals(blobID));
     }
 
-    // returns the commit given the sha1hash
-    public static Commit grabCommit(String sha1hash) {
-        if (sha1hash == null) {
-            return null;
-        }
-        List<String> listOfCommits = plainFilenamesIn(COMMITS_DIR);
-        for (String commitID : listOfCommits) {
-            if (commitID.equals(sha1hash) || commitID.contains(sha1hash)) {
-                File file = join(COMMITS_DIR, sha1hash);
-                return readObject(file, Commit.class);
-            }
+    // the id FILE would get as the blob of FILENAME if it were added now
+    private String workingBlobID(String fileName, File file) {
+        if (largeFiles != null && largeFiles.takes(file)) {
+            return hash(fileName, LargeFileStore.pointer(LargeFileStore.objectID(file),
+                    file.length()));
         }
-        return null;
+        return hash(fileName, readContentsAsString(file));
     }
 
     // prints all the current branches
-    public static void printBranches() {
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-        branches = readObject(join(GITLET_DIR, "branches"), HashMap.class);
-        List<String> listOfBranches = new ArrayList<>();
-        listOfBranches.addAll(branches.keySet());
-        printSortedBranches(listOfBranches);
+    private void printBranches() {
+        printSortedBranches(new ArrayList<>(refs.branches().keySet()));
     }
+
     // sort and print branches
-    public static void printSortedBranches(List<String> branchesList) {
-        String currentBranch = HEAD.branch;
+    private void printSortedBranches(List<String> branchesList) {
+        String currentBranch = refs.headBranch();
         Collections.sort(branchesList);
         for (String s : branchesList) {
             if (s.equals(currentBranch)) {
-                System.out.println("*" + currentBranch);
+                out.println("*" + currentBranch);
             } else {
-                System.out.println(s);
+                out.println(s);
             }
         }
-        System.out.println();
-    }
-
-
-    // prints the name of all the files staged for add
-    public static void printStageAdd() {
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        List<String> addList = new ArrayList<>();
-        addList.addAll(stagingAdd.keySet());
-        printSorted(addList);
+        out.println();
     }
 
-    // prints the names of all the files in the staged for remove
-    public static void printStageRemove() {
-        HashMap<String, String> stagingrm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
-
-        List<String> rmList = new ArrayList<>();
-        rmList.addAll(stagingrm.keySet());
-        printSorted(rmList);
-    }
-
-
     // prints out the list of fileNames alphabetically
-    public static void printSorted(List<String> list) {
+    private void printSorted(List<String> list) {
         Collections.sort(list);
         for (String s : list) {
-            System.out.println(s);
+            out.println(s);
         }
-        System.out.println();
+        out.println();
     }
 
-    public static Commit findCommitByIDinCurrentBranch(String sha1) {
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-        Commit currCommit = readObject(join(COMMITS_DIR, HEAD.HEAD), Commit.class);
+    private Commit findCommitByIDinCurrentBranch(String sha1) {
+        Commit currCommit = grabCommit(refs.headCommit());
 
         while (currCommit != null) {
             if (currCommit.getId().equals(sha1)
                     || currCommit.getId().contains(sha1)) {
                 return currCommit;
             }
-            currCommit = currCommit.getParent() == null
-                    ? null :  grabCommit(currCommit.getParent());
+            currCommit = grabCommit(currCommit.getParent());
         }
 
         return null;
     }
 
-    //get all untracked files in CWD
-
-    public static Set<String> getUntrackedFiles() {
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-        Commit currCommit = readObject(join(COMMITS_DIR, HEAD.HEAD), Commit.class);
+    //get all untracked files in CWD, leaving out the ones .gitletignore names and, since
+    // nothing is ever written over them, the ones outside a sparse checkout
+    private Set<String> getUntrackedFiles() {
+        Commit currCommit = grabCommit(refs.headCommit());
 
         Set<String> untracked = new HashSet<>();
 
-        for (String fileName : plainFilenamesIn(CWD)) {
+        WorkingFiles workingFiles = WorkingFiles.load(db, cwd, this::workingBlobID);
+        IgnoreMatcher ignored = IgnoreMatcher.load(cwd);
+        for (String fileName : workingFiles.names()) {
             if ((!currCommit.getFilesList().containsKey(fileName))
-                    && (!stagingAdd.containsKey(fileName))) {
+                    && (!stagingAdd.containsKey(fileName))
+                    && !ignored.matches(fileName) && isMaterialized(fileName)) {
                 untracked.add(fileName);
             }
         }
+        workingFiles.save(db);
         return untracked;
     }
 
-    public static Commit findIntersectingCommit(Commit commit1, Commit commit2) {
+    private Commit findIntersectingCommit(Commit commit1, Commit commit2) {
         Set<String> firstSet = new HashSet<>();
 
         Commit c1 = commit1;
@@ -891,8 +2316,6 @@ public class Repository {
             c1 = grabCommit(c1.getParent());
         }
 
-        //System.out.println("First Set: " + firstSet);
-
         while (c2 != null) {
             if (firstSet.contains(c2.getId())) {
                 return c2;
@@ -903,48 +2326,7 @@ public class Repository {
         return null;
     }
 
-//    public static void printModificationsNotStagedForCommit() {
-//        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-//        Commit currCommit = readObject(join(COMMITS_DIR, HEAD.HEAD), Commit.class);
-//
-//        List<String> result = new ArrayList<>();
-//        for (String fileName : plainFilenamesIn(CWD)) {
-//            if (currCommit.getFilesList().containsKey(fileName))
-//        }
-//    }
-
-    public static void printUntrackedFilesEC() {
-        HEAD = readObject(join(GITLET_DIR, "HEAD"), Head.class);
-        Commit currCommit = readObject(join(COMMITS_DIR, HEAD.HEAD), Commit.class);
-
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        HashMap<String, String> stagingrm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
-
-        List<String> untrackedFiles = new ArrayList<>();
-
-        for (String fileName : stagingrm.keySet()) {
-            File file = join(CWD, fileName);
-            if (file.exists()) { // meaning it was recreated after removal
-                untrackedFiles.add(fileName);
-            }
-        }
-        for (String fileName : plainFilenamesIn(CWD)) {
-            if (!stagingAdd.containsKey(fileName)
-                    && !currCommit.getFilesList().containsKey(fileName)) {
-                untrackedFiles.add(fileName);
-            }
-        }
-        printSorted(untrackedFiles);
-    }
-
-    public static boolean stagingAreaIsNotEmpty() {
-        HashMap<String, String> stagingAdd =
-                readObject(join(STAGING_AREA, "stagingAreaAdd"), HashMap.class);
-        HashMap<String, String> stagingrm =
-                readObject(join(STAGING_AREA, "stagingAreaRemove"), HashMap.class);
-
+    private boolean stagingAreaIsNotEmpty() {
         return (!stagingAdd.isEmpty() || !stagingrm.isEmpty());
     }
 }
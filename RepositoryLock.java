@@ -0,0 +1,44 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/** An exclusive OS-level lock on .gitlet/lock.  Every command holds it for
+ *  its whole run, so gc never sweeps while another process is half way
+ *  through writing a commit, and two commands never interleave their writes.
+ *  @author Jackson Qi
+ */
+public class RepositoryLock implements AutoCloseable {
+
+    private final RandomAccessFile file;
+    private final FileLock lock;
+
+    private RepositoryLock(RandomAccessFile file, FileLock lock) {
+        this.file = file;
+        this.lock = lock;
+    }
+
+    // blocks until no other gitlet process holds the lock on GITLETDIR
+    public static RepositoryLock acquire(File gitletDir) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(new File(gitletDir, "lock"), "rw");
+            FileChannel channel = raf.getChannel();
+            return new RepositoryLock(raf, channel.lock());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            lock.release();
+            file.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package gitlet;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** Counts, bytes and nanoseconds spent in gitlet's hot paths, switched on
+ *  with the GITLET_TRACE environment variable:
+ *
+ *      GITLET_TRACE=1     per-command summary table on stderr
+ *      GITLET_TRACE=json  the same summary as one line of JSON on stderr
+ *      GITLET_TRACE=jfr   a gitlet.Operation JFR event per call, for use
+ *                         with -XX:StartFlightRecording
+ *
+ *  When the variable is unset, ENABLED is false and a start/end pair costs
+ *  two calls that each test it and return, which the JIT inlines.
+ *  @author Jackson Qi
+ */
+class Trace {
+
+    /** The instrumented operations. */
+    enum Op {
+        READ_OBJECT("readObject"),
+        WRITE_OBJECT("writeObject"),
+        HASH("hash"),
+        GRAB_COMMIT("grabCommit"),
+        GRAB_BLOB("grabBlob"),
+        RESTORE_FILES("restoreFiles");
+
+        private final String label;
+
+        Op(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final String MODE = System.getenv("GITLET_TRACE");
+    static final boolean ENABLED = MODE != null && !MODE.isEmpty() && !MODE.equals("0");
+    private static final boolean JFR = ENABLED && MODE.equals("jfr");
+
+    private static final int NUM_OPS = Op.values().length;
+    private static final AtomicLongArray CALLS = new AtomicLongArray(NUM_OPS);
+    private static final AtomicLongArray BYTES = new AtomicLongArray(NUM_OPS);
+    private static final AtomicLongArray NANOS = new AtomicLongArray(NUM_OPS);
+
+    /** The command begin was given, or null before it is called. */
+    private static String command;
+    private static long commandStart;
+
+    static {
+        if (ENABLED && !JFR) {
+            Runtime.getRuntime().addShutdownHook(new Thread(Trace::report));
+        }
+    }
+
+    /** Marks the start of COMMAND; its summary is printed when the JVM exits,
+     *  which also covers commands that end in System.exit. */
+    static void begin(String name) {
+        if (!ENABLED) {
+            return;
+        }
+        command = name;
+        commandStart = System.nanoTime();
+    }
+
+    /** Returns a start timestamp to hand back to end, or 0 when disabled. */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /** Records one call of OP that began at START and moved BYTES bytes. */
+    static void end(Op op, long start, long bytes) {
+        if (!ENABLED) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (JFR) {
+            OperationEvent event = new OperationEvent();
+            event.operation = op.label;
+            event.bytes = bytes;
+            event.nanos = elapsed;
+            event.commit();
+            return;
+        }
+        CALLS.incrementAndGet(op.ordinal());
+        BYTES.addAndGet(op.ordinal(), bytes);
+        NANOS.addAndGet(op.ordinal(), elapsed);
+    }
+
+    private static void report() {
+        if (command == null) {
+            return;
+        }
+        long total = System.nanoTime() - commandStart;
+        if (MODE.equals("json")) {
+            System.err.println(toJson(total));
+            return;
+        }
+        System.err.printf("gitlet trace: %s (%.3f ms)%n", command, total / 1e6);
+        for (Op op : Op.values()) {
+            int i = op.ordinal();
+            if (CALLS.get(i) > 0) {
+                System.err.printf("  %-14s %8d calls %12d bytes %10.3f ms%n", op.label,
+                        CALLS.get(i), BYTES.get(i), NANOS.get(i) / 1e6);
+            }
+        }
+    }
+
+    private static String toJson(long total) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"command\":\"").append(command).append("\",\"nanos\":").append(total);
+        sb.append(",\"ops\":{");
+        String sep = "";
+        for (Op op : Op.values()) {
+            int i = op.ordinal();
+            sb.append(sep).append('"').append(op.label).append("\":{\"calls\":")
+                    .append(CALLS.get(i)).append(",\"bytes\":").append(BYTES.get(i))
+                    .append(",\"nanos\":").append(NANOS.get(i)).append('}');
+            sep = ",";
+        }
+        return sb.append("}}").toString();
+    }
+
+    /** The JFR event emitted per call in GITLET_TRACE=jfr mode. */
+    @Name("gitlet.Operation")
+    @Label("Gitlet Operation")
+    @Category("Gitlet")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Time Spent")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+}
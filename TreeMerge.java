@@ -0,0 +1,67 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A three-way merge of two file lists against the one they both started
+ *  from, done on names and blob ids alone: a file only one side changed
+ *  takes that side's blob (or goes, if that side removed it), and a file
+ *  both sides changed differently is a conflict, left as it is on our side
+ *  for the caller to replace.  The same rules merge uses, but no blob is
+ *  read and nothing is written, so a rebase can run one per commit in
+ *  memory.
+ *  @author Jackson Qi
+ */
+class TreeMerge {
+
+    private final TreeMap<String, String> files;
+    private final List<String> conflicts;
+
+    private TreeMerge(TreeMap<String, String> files, List<String> conflicts) {
+        this.files = files;
+        this.conflicts = conflicts;
+    }
+
+    // merges OURS and THEIRS, by name and blob id, against BASE
+    static TreeMerge of(Map<String, String> base, Map<String, String> ours,
+                        Map<String, String> theirs) {
+        TreeSet<String> names = new TreeSet<>(base.keySet());
+        names.addAll(ours.keySet());
+        names.addAll(theirs.keySet());
+        TreeMap<String, String> files = new TreeMap<>();
+        List<String> conflicts = new ArrayList<>();
+        for (String fileName : names) {
+            String before = base.get(fileName);
+            String ourID = ours.get(fileName);
+            String theirID = theirs.get(fileName);
+            String merged;
+            if (Objects.equals(ourID, theirID) || Objects.equals(before, theirID)) {
+                merged = ourID;
+            } else if (Objects.equals(before, ourID)) {
+                merged = theirID;
+            } else {
+                merged = ourID;
+                conflicts.add(fileName);
+            }
+            if (merged != null) {
+                files.put(fileName, merged);
+            }
+        }
+        return new TreeMerge(files, conflicts);
+    }
+
+    // the merged file list, which the caller may change
+    TreeMap<String, String> files() {
+        return files;
+    }
+
+    // the names both sides changed differently, in order
+    List<String> conflicts() {
+        return Collections.unmodifiableList(conflicts);
+    }
+}
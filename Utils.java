@@ -1,9 +1,9 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -12,10 +12,7 @@ import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -29,36 +26,60 @@ import java.util.List;
 class Utils {
 
     /**
-     * The length of a complete SHA-1 UID as a hexadecimal numeral.
+     * The length of a complete SHA-1 UID as a hexadecimal numeral.  SHA-256
+     * ids are twice HashAlgorithm.rawLength digits long instead.
      */
     static final int UID_LENGTH = 40;
 
     /* SHA-1 HASH VALUES. */
 
+    /** Hex digits for toHex. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Returns the SHA-1 hash of the concatenation of VALS, which may
      * be any mixture of byte arrays and Strings.
      */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+        long start = Trace.start();
+        String result = toHex(HashAlgorithm.SHA1.digest(vals));
+        Trace.end(Trace.Op.HASH, start, Trace.ENABLED ? byteCount(vals) : 0);
+        return result;
+    }
+
+    /**
+     * Returns the hash of the concatenation of VALS under the repository's
+     * object hash (see HashAlgorithm.current), as hexadecimal.  This is what
+     * names commits and blobs.
+     */
+    static String hash(Object... vals) {
+        long start = Trace.start();
+        String result = toHex(HashAlgorithm.current().digest(vals));
+        Trace.end(Trace.Op.HASH, start, Trace.ENABLED ? byteCount(vals) : 0);
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes hashing VALS covers, for tracing.
+     */
+    private static long byteCount(Object... vals) {
+        long count = 0;
+        for (Object val : vals) {
+            count += val instanceof byte[] ? ((byte[]) val).length : ((String) val).length();
         }
+        return count;
+    }
+
+    /**
+     * Returns BYTES as lower-case hexadecimal, two digits per byte.
+     */
+    static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            out[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(out);
     }
 
     /**
@@ -153,13 +174,38 @@ class Utils {
 
     /**
      * Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+     * FILE may be in the ObjectCodec format or, for repositories that have
+     * not been migrated yet, in Java serialization format.
      * Throws IllegalArgumentException in case of problems.
      */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        return deserialize(readContents(file), expectedClass);
+    }
+
+    /**
+     * Return an object of type T decoded from BYTES, casting it to
+     * EXPECTEDCLASS.  BYTES may be in either format readObject accepts.
+     */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        long start = Trace.start();
+        T result = ObjectCodec.isLegacy(bytes)
+                ? readLegacyObject(bytes, expectedClass)
+                : ObjectCodec.decode(bytes, expectedClass);
+        Trace.end(Trace.Op.READ_OBJECT, start, bytes.length);
+        return result;
+    }
+
+    /**
+     * Return an object of type T deserialized with ObjectInputStream from
+     * BYTES, casting it to EXPECTEDCLASS.
+     */
+    static <T extends Serializable> T readLegacyObject(byte[] bytes,
+                                                       Class<T> expectedClass) {
         try {
             ObjectInputStream in =
-                    new ObjectInputStream(new FileInputStream(file));
+                    new ObjectInputStream(new ByteArrayInputStream(bytes));
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -173,7 +219,10 @@ class Utils {
      * Write OBJ to FILE.
      */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        long start = Trace.start();
+        byte[] bytes = serialize(obj);
+        writeContents(file, bytes);
+        Trace.end(Trace.Op.WRITE_OBJECT, start, bytes.length);
     }
 
     /* DIRECTORIES */
@@ -236,9 +285,18 @@ class Utils {
     /* SERIALIZATION UTILITIES */
 
     /**
-     * Returns a byte array containing the serialized contents of OBJ.
+     * Returns a byte array containing the serialized contents of OBJ, in
+     * the ObjectCodec format.
      */
     static byte[] serialize(Serializable obj) {
+        return ObjectCodec.encode(obj);
+    }
+
+    /**
+     * Returns a byte array containing OBJ serialized with ObjectOutputStream,
+     * the format used before ObjectCodec.
+     */
+    static byte[] serializeLegacy(Serializable obj) {
         try {
             ByteArrayOutputStream stream = new ByteArrayOutputStream();
             ObjectOutputStream objectStream = new ObjectOutputStream(stream);
@@ -0,0 +1,203 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+
+import static gitlet.Utils.error;
+import static gitlet.Utils.join;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** Watches a working directory from a process of its own and writes the
+ *  names of the files that change to a journal in .gitlet, so commands can
+ *  look at just those files instead of all of them (see WorkingFiles).
+ *
+ *  The journal is a first line "gitlet-monitor TOKEN" followed by one file
+ *  name per line, or "!overflow" where the watch service lost events.  Each
+ *  monitor starts a journal with a new token, and starts over with another
+ *  once the journal passes MAX_JOURNAL bytes, so a position in a journal only
+ *  means something together with its token.  A monitor holds a lock on
+ *  monitor.lock for as long as it runs; without the lock nobody vouches for
+ *  the journal.
+ *
+ *  Events arrive some time after the change that caused them.  So that a
+ *  command sees every change made before it started, it first creates a
+ *  cookie file in the working directory and waits for its name to appear in
+ *  the journal, as git's fsmonitor does.
+ *  @author Jackson Qi
+ */
+class WorkTreeMonitor {
+
+    static final String JOURNAL_NAME = "monitor.journal";
+    static final String LOCK_NAME = "monitor.lock";
+    /** Cookie files start with this, and are never working files. */
+    static final String COOKIE_PREFIX = ".gitlet-cookie-";
+    private static final String HEADER = "gitlet-monitor ";
+    private static final String OVERFLOWED = "!overflow";
+    private static final long MAX_JOURNAL = 1 << 20;
+    private static final long COOKIE_TIMEOUT_MILLIS = 1000;
+
+    /** The changes a journal records after some position in it. */
+    static class Changes {
+        /** The journal's token, and the position just past the changes. */
+        final String token;
+        final long offset;
+        /** The names of the files that changed; null if they cannot be known, because
+         *  the journal is not the one asked about or lost events. */
+        final Set<String> names;
+
+        Changes(String token, long offset, Set<String> names) {
+            this.token = token;
+            this.offset = offset;
+            this.names = names;
+        }
+    }
+
+    private WorkTreeMonitor() {
+    }
+
+    // monitor: watches CWD until the process is killed
+    static void run(File cwd, PrintStream out) {
+        File gitletDir = join(cwd, ".gitlet");
+        try (FileChannel lockChannel = FileChannel.open(join(gitletDir, LOCK_NAME).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            FileLock lock = lockChannel.tryLock();
+            if (lock == null) {
+                throw error("A monitor is already running.");
+            }
+            cwd.toPath().register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            File journal = join(gitletDir, JOURNAL_NAME);
+            startJournal(journal);
+            out.println("Watching " + cwd.getAbsolutePath() + ".");
+            while (true) {
+                WatchKey key = watcher.take();
+                StringBuilder lines = new StringBuilder();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        lines.append(OVERFLOWED).append('\n');
+                    } else if (!event.context().toString().equals(".gitlet")) {
+                        lines.append(event.context()).append('\n');
+                    }
+                }
+                key.reset();
+                try (FileOutputStream append = new FileOutputStream(journal, true)) {
+                    append.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                }
+                if (journal.length() > MAX_JOURNAL) {
+                    startJournal(journal);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot watch %s: %s", cwd, excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // replaces JOURNAL with an empty one under a new token
+    private static void startJournal(File journal) throws IOException {
+        String token = Long.toHexString(System.nanoTime()) + Long.toHexString(
+                Double.doubleToLongBits(Math.random()));
+        File temp = join(journal.getParentFile(), JOURNAL_NAME + ".tmp");
+        Utils.writeContents(temp, HEADER + token + "\n");
+        Files.move(temp.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // the changes to the files in CWD since OFFSET in the journal TOKEN, which may be null;
+    // null if no monitor is running or it does not answer in time
+    static Changes since(File cwd, String token, long offset) {
+        File gitletDir = join(cwd, ".gitlet");
+        if (!isRunning(join(gitletDir, LOCK_NAME))) {
+            return null;
+        }
+        File cookie = join(cwd, COOKIE_PREFIX + ProcessHandle.current().pid() + "-"
+                + System.nanoTime());
+        try {
+            cookie.createNewFile();
+            long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT_MILLIS;
+            while (System.currentTimeMillis() < deadline) {
+                Changes changes = read(join(gitletDir, JOURNAL_NAME), token, offset,
+                        cookie.getName());
+                if (changes != null) {
+                    return changes;
+                }
+                Thread.sleep(2);
+            }
+            return null;
+        } catch (IOException excp) {
+            return null;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            cookie.delete();
+        }
+    }
+
+    // whether a monitor holds LOCKFILE
+    private static boolean isRunning(File lockFile) {
+        if (!lockFile.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    // the changes in JOURNAL up to the line COOKIE, or null if that line is not there yet
+    private static Changes read(File journal, String token, long offset, String cookie)
+            throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(journal, "r")) {
+            String header = in.readLine();
+            if (header == null || !header.startsWith(HEADER)) {
+                return null;
+            }
+            String current = header.substring(HEADER.length());
+            boolean known = current.equals(token);
+            if (known) {
+                in.seek(offset);
+            }
+            Set<String> names = new HashSet<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = new String(line.getBytes(StandardCharsets.ISO_8859_1),
+                        StandardCharsets.UTF_8);
+                if (line.equals(cookie)) {
+                    return new Changes(current, in.getFilePointer(), known ? names : null);
+                } else if (line.equals(OVERFLOWED)) {
+                    known = false;
+                } else if (!line.startsWith(COOKIE_PREFIX)) {
+                    names.add(line);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import gitlet.ObjectDatabase.Namespace;
+
+import static gitlet.Utils.deserialize;
+import static gitlet.Utils.join;
+import static gitlet.Utils.plainFilenamesIn;
+import static gitlet.Utils.serialize;
+
+/** The plain files in the working directory, with the blob id each would
+ *  get if it were added, worked out the first time a command asks for it.
+ *
+ *  While a WorkTreeMonitor runs, both are kept from one command to the
+ *  next, and a command looks again only at the files the monitor's journal
+ *  names.  When the journal cannot say what changed, the directory is
+ *  listed again and every id is forgotten.
+ *
+ *  Without a monitor only the names are kept, together with the mtime the
+ *  directory had when they were listed, since adding, removing or renaming
+ *  a file changes it and editing one does not.  While the mtime stays the
+ *  same, no command lists the directory again.  A listing taken less than
+ *  RACY_MILLIS after the directory last changed is not kept: a change made
+ *  just after it could leave the mtime as it was on a filesystem with
+ *  coarse timestamps, as with git's racily clean index entries.
+ *  @author Jackson Qi
+ */
+class WorkingFiles {
+
+    /** The STAGING entry this is kept in. */
+    static final String NAME = "workingFiles";
+    /** Holds "TOKEN OFFSET", the journal position the entry is current as of; no file
+     *  name contains a NUL. */
+    private static final String POSITION_KEY = "\0position";
+    /** Holds "MTIME LISTED", the directory's mtime and when it was listed, if the
+     *  entry was kept without a monitor. */
+    private static final String DIRECTORY_KEY = "\0directory";
+    /** Two seconds, the coarsest mtime of a common filesystem (FAT). */
+    private static final long RACY_MILLIS = 2000;
+
+    private final File cwd;
+    private final BiFunction<String, File, String> blobIDs;
+    /** Every working file, and its blob id, or "" if it has not been worked out. */
+    private final HashMap<String, String> files;
+    private final String token;
+    private final long offset;
+    /** "MTIME LISTED" if the names are to be kept without a monitor, else null. */
+    private final String listing;
+    private boolean changed;
+
+    private WorkingFiles(File cwd, BiFunction<String, File, String> blobIDs,
+                         HashMap<String, String> files, String token, long offset,
+                         String listing, boolean changed) {
+        this.cwd = cwd;
+        this.blobIDs = blobIDs;
+        this.files = files;
+        this.token = token;
+        this.offset = offset;
+        this.listing = listing;
+        this.changed = changed;
+    }
+
+    // the working files of CWD, using what DB kept of them the last time if a monitor
+    // can tell what has changed since; BLOBIDS gives the blob id of a name and its file
+    @SuppressWarnings("unchecked")
+    static WorkingFiles load(ObjectDatabase db, File cwd,
+                             BiFunction<String, File, String> blobIDs) {
+        byte[] bytes = db.get(Namespace.STAGING, NAME);
+        HashMap<String, String> stored = bytes == null ? null
+                : deserialize(bytes, HashMap.class);
+        String token = null;
+        long offset = 0;
+        String directory = null;
+        if (stored != null) {
+            String position = stored.remove(POSITION_KEY);
+            if (position != null) {
+                token = position.split(" ")[0];
+                offset = Long.parseLong(position.split(" ")[1]);
+            }
+            directory = stored.remove(DIRECTORY_KEY);
+        }
+
+        WorkTreeMonitor.Changes changes = WorkTreeMonitor.since(cwd, token, offset);
+        if (changes == null) {
+            long mtime = cwd.lastModified();
+            if (directory != null && isUnchanged(directory, mtime)) {
+                return new WorkingFiles(cwd, blobIDs, stored, null, 0, null, false);
+            }
+            long listed = System.currentTimeMillis();
+            String listing = listed - mtime >= RACY_MILLIS ? mtime + " " + listed : null;
+            return new WorkingFiles(cwd, blobIDs, list(cwd), null, 0, listing, true);
+        }
+        if (changes.names == null || token == null) {
+            return new WorkingFiles(cwd, blobIDs, list(cwd), changes.token, changes.offset,
+                    null, true);
+        }
+        for (String name : changes.names) {
+            if (join(cwd, name).isFile()) {
+                stored.put(name, "");
+            } else {
+                stored.remove(name);
+            }
+        }
+        return new WorkingFiles(cwd, blobIDs, stored, changes.token, changes.offset, null,
+                changes.offset != offset);
+    }
+
+    // every working file in CWD, none of whose ids has been worked out
+    private static HashMap<String, String> list(File cwd) {
+        HashMap<String, String> files = new HashMap<>();
+        for (String name : plainFilenamesIn(cwd)) {
+            if (!name.startsWith(WorkTreeMonitor.COOKIE_PREFIX)) {
+                files.put(name, "");
+            }
+        }
+        return files;
+    }
+
+    // whether a directory whose mtime is now MTIME still holds the files of the listing
+    // DIRECTORY describes
+    private static boolean isUnchanged(String directory, long mtime) {
+        String[] stamp = directory.split(" ");
+        return Long.parseLong(stamp[0]) == mtime
+                && Long.parseLong(stamp[1]) - mtime >= RACY_MILLIS;
+    }
+
+    // the names of the working files
+    Set<String> names() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    // the blob id of the working file NAME, or null if there is no such file
+    String blobID(String name) {
+        String id = files.get(name);
+        if (id == null) {
+            return null;
+        }
+        if (id.isEmpty()) {
+            id = blobIDs.apply(name, join(cwd, name));
+            files.put(name, id);
+            changed |= token != null;
+        }
+        return id;
+    }
+
+    // keeps what was learned for the next command: everything if a monitor will say what
+    // changes before then, else just the names, for as long as the directory's mtime stays
+    void save(ObjectDatabase db) {
+        if (!changed || (token == null && listing == null)) {
+            return;
+        }
+        HashMap<String, String> stored = new HashMap<>(files);
+        if (token != null) {
+            stored.put(POSITION_KEY, token + " " + offset);
+        } else {
+            // without a monitor nothing says whether a file was edited since
+            stored.replaceAll((name, id) -> "");
+            stored.put(DIRECTORY_KEY, listing);
+        }
+        db.put(Namespace.STAGING, NAME, serialize(stored));
+        changed = false;
+    }
+}